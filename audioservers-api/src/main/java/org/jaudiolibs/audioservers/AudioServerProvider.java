@@ -65,14 +65,39 @@ public abstract class AudioServerProvider {
     
     /**
      * Can the provided AudioConfiguration be supported by the underlying library.
-     * This is an optimistic test - the default implementation returns true in all
-     * cases!
+     * The default implementation checks that
+     * {@link #findClosestConfiguration(AudioConfiguration)} returns a
+     * configuration with the same sample rate, channel counts and buffer size.
      *
      * @param config
      * @return whether the configuration is supported.
      */
     public boolean isConfigurationSupported(AudioConfiguration config) {
-        return true;
+        AudioConfiguration closest = findClosestConfiguration(config);
+        return closest != null
+                && closest.getSampleRate() == config.getSampleRate()
+                && closest.getInputChannelCount() == config.getInputChannelCount()
+                && closest.getOutputChannelCount() == config.getOutputChannelCount()
+                && closest.getMaxBufferSize() == config.getMaxBufferSize()
+                && closest.isFixedBufferSize() == config.isFixedBufferSize();
+    }
+
+    /**
+     * Find the supported AudioConfiguration closest to the provided one. The
+     * returned configuration has the same extensions as the provided
+     * configuration, and may be passed to createServer(). Implementations
+     * may probe the underlying library, which can be slow the first time a
+     * device is queried.
+     * 
+     * This is an optimistic test - the default implementation returns the
+     * provided configuration in all cases!
+     *
+     * @param config requested configuration
+     * @return closest supported configuration, or null if no configuration
+     * close to the provided one can be supported
+     */
+    public AudioConfiguration findClosestConfiguration(AudioConfiguration config) {
+        return config;
     }
 
     /**
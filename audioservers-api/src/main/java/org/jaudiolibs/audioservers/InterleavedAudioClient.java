@@ -0,0 +1,66 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.jaudiolibs.audioservers;
+
+import java.nio.FloatBuffer;
+
+/**
+ * An optional extension of AudioClient for clients that work with interleaved
+ * audio, eg. clients feeding codecs or network sinks. Servers that support
+ * this interface will call processInterleaved() instead of process(), passing
+ * single interleaved buffers and avoiding the cost of splitting audio into
+ * channels and interleaving it again in the client.
+ *
+ * Servers that do not support this interface, or cannot use it in their
+ * current configuration, will call process() as with any other AudioClient.
+ * Implementations must therefore support both methods.
+ *
+ */
+public interface InterleavedAudioClient extends AudioClient {
+
+    /**
+     * Process interleaved audio. The client is provided with the time for the
+     * current buffer, measured in nanoseconds and relative to
+     * System.nanotime().
+     *
+     * Each buffer contains nframes * channel count samples, with the samples
+     * of each frame adjacent. In the case of there being no input channels, a
+     * zero length buffer rather than null will be passed in. The input buffer
+     * should be treated as read-only. Buffer positions will be zero on entry.
+     *
+     * The number of frames follows the same rules as in
+     * {@link AudioClient#process(long, java.util.List, java.util.List, int)}.
+     *
+     * @param time buffer time relative to {@link System#nanoTime()}
+     * @param input interleaved input buffer (may be empty)
+     * @param output interleaved output buffer
+     * @param nframes number of frames in each buffer
+     * @return boolean (OK / disconnect)
+     */
+    public boolean processInterleaved(long time, FloatBuffer input,
+            FloatBuffer output, int nframes);
+
+}
@@ -0,0 +1,61 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.jaudiolibs.audioservers;
+
+/**
+ * An optional extension of AudioClient for clients that want their buffers
+ * split at points of their choosing, eg. at the frame of a scheduled event or
+ * automation change. Before each call to process(), servers that support this
+ * interface ask the client how many frames the next call should cover, so
+ * that sample-accurate changes can be applied at the start of a call rather
+ * than by the client splitting its own buffers.
+ *
+ * Servers will only split buffers in this way where the AudioConfiguration
+ * passed to the client reports a variable buffer size (
+ * {@link AudioConfiguration#isFixedBufferSize()} returns false). Otherwise,
+ * and in servers that do not support this interface, process() is called as
+ * with any other AudioClient.
+ *
+ */
+public interface SplitAudioClient extends AudioClient {
+
+    /**
+     * Find the number of frames to pass to the next call to process(). The
+     * frame position counts every frame passed to the client since the server
+     * started, at the sample rate in the AudioConfiguration. The returned
+     * value is clamped by the server to between 1 and the available number of
+     * frames.
+     *
+     * This method is called on the audio thread and must be realtime safe.
+     *
+     * @param frame frame position of the start of the next call to process()
+     * @param available frames remaining before the end of the current server
+     * buffer, no greater than the maximum buffer size
+     * @return number of frames to process
+     */
+    public int nextBlockSize(long frame, int available);
+
+}
@@ -0,0 +1,322 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Ported from http://code.google.com/p/libtimefilter/
+ * 
+ * 
+ * libtimefilter - A library for accurate time stamping
+ * author: Olivier Guilyardi <olivier samalyse com>
+ *
+ * Copyright (c) 2009, Samalyse SARL - All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of Samalyse SARL nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jaudiolibs.audioservers.ext;
+
+/**
+ * A smoothed audio clock, mapping between frame positions and
+ * System.nanoTime(). Libraries that support this extension include an instance
+ * in the AudioConfiguration passed to the AudioClient, and update it once per
+ * cycle from the audio thread. The time passed to the client's process()
+ * method is the smoothed time returned by the clock.
+ * <p>
+ * The clock runs a delay locked loop on the times at which the server wakes
+ * for each buffer, filtering out scheduling jitter while tracking the actual
+ * rate of the device against the system clock. The loop bandwidth sets the
+ * trade-off - a lower bandwidth gives a smoother timebase that is slower to
+ * follow changes in rate. To choose a bandwidth, include an AudioClock in the
+ * requested AudioConfiguration - servers will use that instance rather than
+ * creating their own.
+ * <p>
+ * The query methods may be called from any thread. Values relate to the start
+ * of the current cycle, and are only valid once the server is processing.
+ * Frame positions count frames passed to the client since the server started,
+ * and continue to increase if the loop is reset.
+ */
+public final class AudioClock {
+
+    /**
+     * Default loop bandwidth in Hz.
+     */
+    public final static double DEFAULT_BANDWIDTH = 1.5;
+
+    private final static double JITTER_SMOOTHING = 0.01;
+
+    private final double bandwidth;
+
+    // loop state - only accessed by the server thread
+    private double tper;
+    private double b;
+    private double c;
+    private double e2;
+    private double t0;
+    private double t1;
+    private double jitterSquared;
+    private long base;
+    private boolean restart;
+    private int periodFrames;
+    private int lastPeriodFrames;
+
+    // published state - time values are read under the sequence count
+    private volatile int sequence;
+    private volatile long frame;
+    private volatile long time;
+    private volatile double frameNanos;
+    private volatile double sampleRate;
+    private volatile double drift;
+    private volatile double jitter;
+    private volatile long cycles;
+
+    /**
+     * Create an AudioClock with the default bandwidth.
+     */
+    public AudioClock() {
+        this(DEFAULT_BANDWIDTH);
+    }
+
+    /**
+     * Create an AudioClock with the given loop bandwidth.
+     *
+     * @param bandwidth loop bandwidth in Hz
+     */
+    public AudioClock(double bandwidth) {
+        if (!(bandwidth > 0)) {
+            throw new IllegalArgumentException("Bandwidth must be greater than zero");
+        }
+        this.bandwidth = bandwidth;
+        restart = true;
+    }
+
+    /**
+     * Get the loop bandwidth.
+     *
+     * @return bandwidth in Hz
+     */
+    public double getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Reset the loop for the given sample rate and cycle length. For use by
+     * servers before processing starts, or after processing has been
+     * interrupted.
+     *
+     * @param sampleRate nominal sample rate
+     * @param periodFrames frames per cycle
+     */
+    public void reset(double sampleRate, int periodFrames) {
+        if (!(sampleRate > 0) || periodFrames < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.periodFrames = periodFrames;
+        tper = periodFrames / sampleRate;
+        double o = 2 * Math.PI * bandwidth * tper;
+        b = Math.sqrt(2 * o);
+        c = o * o;
+        restart = true;
+        sequence++;
+        this.sampleRate = sampleRate;
+        frameNanos = 1e9 / sampleRate;
+        sequence++;
+    }
+
+    /**
+     * Update the clock at the start of a cycle. For use by servers, once per
+     * cycle.
+     *
+     * @param nanoTime System.nanoTime() at which the server woke for the cycle
+     * @return smoothed time of the start of the cycle
+     */
+    public long update(long nanoTime) {
+        if (periodFrames == 0) {
+            throw new IllegalStateException("Clock has not been reset");
+        }
+        if (restart) {
+            base = nanoTime;
+            e2 = tper;
+            t0 = 0;
+            t1 = tper;
+            jitterSquared = 0;
+            restart = false;
+            cycles = 0;
+        } else {
+            // times are relative to base to preserve precision
+            double e = (nanoTime - base) / 1e9 - t1;
+            t0 = t1;
+            t1 += b * e + e2;
+            e2 += c * e;
+            jitterSquared += (e * e - jitterSquared) * JITTER_SMOOTHING;
+            cycles++;
+        }
+        long f = frame + lastPeriodFrames;
+        lastPeriodFrames = periodFrames;
+        long t = base + (long) (t0 * 1e9);
+        sequence++;
+        frame = f;
+        time = t;
+        frameNanos = e2 * 1e9 / periodFrames;
+        sequence++;
+        drift = tper / e2 - 1;
+        jitter = Math.sqrt(jitterSquared) * 1e9;
+        return t;
+    }
+
+    /**
+     * Get the frame position at the start of the current cycle.
+     *
+     * @return frame position
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * Get the smoothed time of the start of the current cycle.
+     *
+     * @return time in System.nanoTime() timebase
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Convert a frame position to System.nanoTime(), extrapolating from the
+     * current cycle at the estimated device rate.
+     *
+     * @param frame frame position
+     * @return time in System.nanoTime() timebase
+     */
+    public long frameToNanoTime(long frame) {
+        int s;
+        long f, t;
+        double fn;
+        do {
+            s = sequence;
+            f = this.frame;
+            t = time;
+            fn = frameNanos;
+        } while ((s & 1) != 0 || s != sequence);
+        return t + Math.round((frame - f) * fn);
+    }
+
+    /**
+     * Convert a System.nanoTime() value to a frame position, extrapolating
+     * from the current cycle at the estimated device rate.
+     *
+     * @param nanoTime time in System.nanoTime() timebase
+     * @return frame position
+     */
+    public long nanoTimeToFrame(long nanoTime) {
+        int s;
+        long f, t;
+        double fn;
+        do {
+            s = sequence;
+            f = frame;
+            t = time;
+            fn = frameNanos;
+        } while ((s & 1) != 0 || s != sequence);
+        return f + (long) Math.floor((nanoTime - t) / fn);
+    }
+
+    /**
+     * Get the nominal sample rate.
+     *
+     * @return sample rate
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Get the estimated actual sample rate of the device, measured against
+     * System.nanoTime().
+     *
+     * @return estimated sample rate
+     */
+    public double getEstimatedSampleRate() {
+        return 1e9 / frameNanos;
+    }
+
+    /**
+     * Get the drift of the device clock against System.nanoTime(), as a
+     * fraction of the nominal rate. A positive value means the device is
+     * running fast. Multiply by 1e6 for parts per million.
+     *
+     * @return drift
+     */
+    public double getDrift() {
+        return drift;
+    }
+
+    /**
+     * Get the running RMS of the difference between the times the server woke
+     * and the times predicted by the loop.
+     *
+     * @return jitter in nanoseconds
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Get the number of cycles since the loop was last reset.
+     *
+     * @return cycles
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioClock (bandwidth: " + bandwidth + "Hz)";
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This extension can be used to route audio between the AudioClient's buffers
+ * and the device channels using a sparse gain matrix. The client channel
+ * counts are those of the AudioConfiguration, while the device channel counts
+ * are given by this extension. A client may render fewer channels than the
+ * device has, and fan out or mix down to device channels.
+ *
+ * Each route connects one source channel to one target channel with a gain.
+ * Multiple routes to the same target are summed. Device outputs without a
+ * route are silent, as are client inputs without a route.
+ *
+ * Instances are immutable - the routing methods return a new instance.
+ *
+ * Libraries that support this extension should ensure the correct instance of
+ * this class is included in the AudioConfiguration passed to the AudioClient.
+ *
+ */
+public final class ChannelRouting {
+
+    private final int deviceInputs;
+    private final int deviceOutputs;
+    private final List<Route> inputRoutes;
+    private final List<Route> outputRoutes;
+
+    /**
+     * Create a ChannelRouting with no routes.
+     *
+     * @param deviceInputs number of device input channels
+     * @param deviceOutputs number of device output channels
+     */
+    public ChannelRouting(int deviceInputs, int deviceOutputs) {
+        this(deviceInputs, deviceOutputs,
+                Collections.<Route>emptyList(), Collections.<Route>emptyList());
+    }
+
+    private ChannelRouting(int deviceInputs, int deviceOutputs,
+            List<Route> inputRoutes, List<Route> outputRoutes) {
+        if (deviceInputs < 0 || deviceOutputs < 0) {
+            throw new IllegalArgumentException("Channel count cannot be less than zero");
+        }
+        this.deviceInputs = deviceInputs;
+        this.deviceOutputs = deviceOutputs;
+        this.inputRoutes = inputRoutes;
+        this.outputRoutes = outputRoutes;
+    }
+
+    /**
+     * Create a new ChannelRouting with an additional route from a device input
+     * channel to a client input channel.
+     *
+     * @param deviceChannel device input channel
+     * @param clientChannel client input channel
+     * @param gain gain to apply
+     * @return new ChannelRouting
+     */
+    public ChannelRouting routeInput(int deviceChannel, int clientChannel, float gain) {
+        check(deviceChannel, deviceInputs);
+        check(clientChannel, Integer.MAX_VALUE);
+        return new ChannelRouting(deviceInputs, deviceOutputs,
+                add(inputRoutes, new Route(deviceChannel, clientChannel, gain)),
+                outputRoutes);
+    }
+
+    /**
+     * Create a new ChannelRouting with an additional route from a client
+     * output channel to a device output channel.
+     *
+     * @param clientChannel client output channel
+     * @param deviceChannel device output channel
+     * @param gain gain to apply
+     * @return new ChannelRouting
+     */
+    public ChannelRouting routeOutput(int clientChannel, int deviceChannel, float gain) {
+        check(clientChannel, Integer.MAX_VALUE);
+        check(deviceChannel, deviceOutputs);
+        return new ChannelRouting(deviceInputs, deviceOutputs,
+                inputRoutes,
+                add(outputRoutes, new Route(clientChannel, deviceChannel, gain)));
+    }
+
+    /**
+     * Get the number of device input channels.
+     *
+     * @return int ( >=0 )
+     */
+    public int getDeviceInputChannelCount() {
+        return deviceInputs;
+    }
+
+    /**
+     * Get the number of device output channels.
+     *
+     * @return int ( >=0 )
+     */
+    public int getDeviceOutputChannelCount() {
+        return deviceOutputs;
+    }
+
+    /**
+     * Get the routes from device input channels (source) to client input
+     * channels (target).
+     *
+     * @return unmodifiable list of routes
+     */
+    public List<Route> getInputRoutes() {
+        return inputRoutes;
+    }
+
+    /**
+     * Get the routes from client output channels (source) to device output
+     * channels (target).
+     *
+     * @return unmodifiable list of routes
+     */
+    public List<Route> getOutputRoutes() {
+        return outputRoutes;
+    }
+
+    /**
+     * Check that all routes are valid for the given client channel counts.
+     *
+     * @param clientInputs number of client input channels
+     * @param clientOutputs number of client output channels
+     * @throws IllegalArgumentException if a route refers to a channel that
+     * does not exist
+     */
+    public void validate(int clientInputs, int clientOutputs) {
+        for (Route route : inputRoutes) {
+            if (route.target >= clientInputs) {
+                throw new IllegalArgumentException("No client input channel " + route.target);
+            }
+        }
+        for (Route route : outputRoutes) {
+            if (route.source >= clientOutputs) {
+                throw new IllegalArgumentException("No client output channel " + route.source);
+            }
+        }
+    }
+
+    private static void check(int channel, int count) {
+        if (channel < 0 || channel >= count) {
+            throw new IndexOutOfBoundsException("Invalid channel " + channel);
+        }
+    }
+
+    private static List<Route> add(List<Route> routes, Route route) {
+        List<Route> list = new ArrayList<>(routes);
+        list.add(route);
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelRouting (device inputs: " + deviceInputs
+                + ", device outputs: " + deviceOutputs
+                + ", input routes: " + inputRoutes
+                + ", output routes: " + outputRoutes + ")";
+    }
+
+    /**
+     * A single route between channels.
+     */
+    public static final class Route {
+
+        private final int source;
+        private final int target;
+        private final float gain;
+
+        private Route(int source, int target, float gain) {
+            this.source = source;
+            this.target = target;
+            this.gain = gain;
+        }
+
+        /**
+         * Source channel.
+         *
+         * @return source channel
+         */
+        public int getSource() {
+            return source;
+        }
+
+        /**
+         * Target channel.
+         *
+         * @return target channel
+         */
+        public int getTarget() {
+            return target;
+        }
+
+        /**
+         * Gain applied to the source channel.
+         *
+         * @return gain
+         */
+        public float getGain() {
+            return gain;
+        }
+
+        @Override
+        public String toString() {
+            return source + "->" + target + " (" + gain + ")";
+        }
+
+    }
+
+}
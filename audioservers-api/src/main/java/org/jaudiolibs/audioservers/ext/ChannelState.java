@@ -0,0 +1,258 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+import java.nio.FloatBuffer;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Per-cycle state of the client's input and output channels. Libraries that
+ * support this extension include an instance in the AudioConfiguration passed
+ * to the AudioClient, and update it before every call to process().
+ * <p>
+ * Input flags tell the client that an input channel is silent (all zero),
+ * constant (every sample has the same value) or unconnected (no source at all,
+ * and therefore also silent). Clients can use these to skip work, eg. not
+ * running a filter over silence. Flags are only ever set when the condition is
+ * known to hold - a clear flag means nothing.
+ * <p>
+ * Output flags are set by the client during process() to tell the server that
+ * an output channel is silent. The client does not need to write to a buffer it
+ * has flagged, and the server may skip conversion work for it. Output flags are
+ * cleared by the server before each cycle.
+ * <p>
+ * All methods must only be called from within the audio callback (or by the
+ * server before it starts). Server-side methods are public so that library
+ * implementations and wrapping clients can use them.
+ */
+public final class ChannelState {
+
+    private final int inputs;
+    private final int outputs;
+    private final BitSet inputSilent;
+    private final BitSet inputConstant;
+    private final BitSet inputUnconnected;
+    private final BitSet outputSilent;
+
+    /**
+     * Create a ChannelState for the given channel counts.
+     *
+     * @param inputs number of input channels
+     * @param outputs number of output channels
+     */
+    public ChannelState(int inputs, int outputs) {
+        if (inputs < 0 || outputs < 0) {
+            throw new IllegalArgumentException("Channel count cannot be less than zero");
+        }
+        this.inputs = inputs;
+        this.outputs = outputs;
+        // size bitsets up front so that no word array is reallocated later
+        inputSilent = new BitSet(Math.max(inputs, 1));
+        inputConstant = new BitSet(Math.max(inputs, 1));
+        inputUnconnected = new BitSet(Math.max(inputs, 1));
+        outputSilent = new BitSet(Math.max(outputs, 1));
+    }
+
+    /**
+     * Get the number of input channels.
+     *
+     * @return input channel count
+     */
+    public int getInputChannelCount() {
+        return inputs;
+    }
+
+    /**
+     * Get the number of output channels.
+     *
+     * @return output channel count
+     */
+    public int getOutputChannelCount() {
+        return outputs;
+    }
+
+    /**
+     * Query whether an input channel is silent for this cycle.
+     *
+     * @param channel input channel
+     * @return true if every sample in the buffer is zero
+     */
+    public boolean isInputSilent(int channel) {
+        checkInput(channel);
+        return inputSilent.get(channel);
+    }
+
+    /**
+     * Query whether an input channel is constant for this cycle. A silent
+     * channel is also constant.
+     *
+     * @param channel input channel
+     * @return true if every sample in the buffer has the same value
+     */
+    public boolean isInputConstant(int channel) {
+        checkInput(channel);
+        return inputConstant.get(channel);
+    }
+
+    /**
+     * Query whether an input channel has no source. An unconnected channel is
+     * also silent and constant.
+     *
+     * @param channel input channel
+     * @return true if the channel is unconnected
+     */
+    public boolean isInputUnconnected(int channel) {
+        checkInput(channel);
+        return inputUnconnected.get(channel);
+    }
+
+    /**
+     * Query whether all input channels are silent for this cycle.
+     *
+     * @return true if every input channel is silent
+     */
+    public boolean isAllInputsSilent() {
+        return inputSilent.cardinality() == inputs;
+    }
+
+    /**
+     * Flag an output channel as silent for this cycle. The client need not
+     * write to the output buffer.
+     *
+     * @param channel output channel
+     */
+    public void setOutputSilent(int channel) {
+        checkOutput(channel);
+        outputSilent.set(channel);
+    }
+
+    /**
+     * Flag every output channel as silent for this cycle.
+     */
+    public void setAllOutputsSilent() {
+        outputSilent.set(0, outputs);
+    }
+
+    /**
+     * Query whether an output channel has been flagged silent for this cycle.
+     *
+     * @param channel output channel
+     * @return true if flagged silent
+     */
+    public boolean isOutputSilent(int channel) {
+        checkOutput(channel);
+        return outputSilent.get(channel);
+    }
+
+    /**
+     * Query whether any output channel has been flagged silent for this cycle.
+     *
+     * @return true if at least one output is flagged silent
+     */
+    public boolean isAnyOutputSilent() {
+        return !outputSilent.isEmpty();
+    }
+
+    /**
+     * Query whether all output channels have been flagged silent for this
+     * cycle.
+     *
+     * @return true if every output is flagged silent
+     */
+    public boolean isAllOutputsSilent() {
+        return outputSilent.cardinality() == outputs;
+    }
+
+    /**
+     * Set the state of an input channel. For use by servers. Unconnected
+     * implies silent, and silent implies constant.
+     *
+     * @param channel input channel
+     * @param constant whether every sample has the same value
+     * @param silent whether every sample is zero
+     * @param unconnected whether the channel has no source
+     */
+    public void setInputState(int channel, boolean constant, boolean silent,
+            boolean unconnected) {
+        checkInput(channel);
+        silent |= unconnected;
+        constant |= silent;
+        inputConstant.set(channel, constant);
+        inputSilent.set(channel, silent);
+        inputUnconnected.set(channel, unconnected);
+    }
+
+    /**
+     * Clear all output flags. For use by servers before each cycle.
+     */
+    public void clearOutputs() {
+        outputSilent.clear();
+    }
+
+    /**
+     * Zero the first nframes of every output buffer flagged silent, and clear
+     * all output flags. For use by servers and wrapping clients that cannot
+     * make use of the flags directly, so that the buffers can be used as
+     * normal. A wrapping client that found every output flagged should call
+     * {@link #setAllOutputsSilent()} once it has finished with the buffers, so
+     * that the server still sees the silence.
+     *
+     * @param outputs output buffers, in channel order
+     * @param nframes number of frames to zero
+     */
+    public void resolveOutputs(List<FloatBuffer> outputs, int nframes) {
+        if (outputSilent.isEmpty()) {
+            return;
+        }
+        int count = Math.min(this.outputs, outputs.size());
+        for (int ch = outputSilent.nextSetBit(0); ch >= 0 && ch < count;
+                ch = outputSilent.nextSetBit(ch + 1)) {
+            FloatBuffer buffer = outputs.get(ch);
+            for (int i = 0; i < nframes; i++) {
+                buffer.put(i, 0);
+            }
+        }
+        outputSilent.clear();
+    }
+
+    private void checkInput(int channel) {
+        if (channel < 0 || channel >= inputs) {
+            throw new IndexOutOfBoundsException("Invalid input channel " + channel);
+        }
+    }
+
+    private void checkOutput(int channel) {
+        if (channel < 0 || channel >= outputs) {
+            throw new IndexOutOfBoundsException("Invalid output channel " + channel);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelState (inputs: " + inputs + ", outputs: " + outputs + ")";
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+/**
+ * This extension can be used to request that the AudioServer calls the
+ * AudioClient in blocks smaller than the device buffer. The maximum buffer size
+ * in the AudioConfiguration is still used for reading and writing the device,
+ * but process() is called several times per device buffer, each time with the
+ * block size given here. This gives a client a finer control rate without
+ * increasing the number of device writes.
+ *
+ * The block size must divide the buffer size exactly. Libraries that support
+ * this extension should pass the block size as the maximum buffer size in the
+ * AudioConfiguration given to the AudioClient, along with this extension. The
+ * time passed to each call to process() is offset by the duration of the
+ * preceding blocks.
+ *
+ * The buffers passed to process() may be views onto a region of the device
+ * buffers rather than separate buffers. A client accessing the backing array
+ * of a heap buffer directly must start at arrayOffset() - the block does not
+ * start at index zero of the array. Access through the buffer's own get and
+ * put methods is unaffected.
+ */
+public final class ClientBlockSize {
+
+    private final int frames;
+
+    /**
+     * Create a ClientBlockSize extension.
+     *
+     * @param frames block size in frames
+     * @throws IllegalArgumentException if frames is less than one
+     */
+    public ClientBlockSize(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("Block size must be at least one frame");
+        }
+        this.frames = frames;
+    }
+
+    /**
+     * The number of frames passed to each call to process().
+     *
+     * @return block size in frames
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    @Override
+    public int hashCode() {
+        return frames;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ClientBlockSize
+                && ((ClientBlockSize) obj).frames == frames;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientBlockSize (" + frames + ")";
+    }
+
+}
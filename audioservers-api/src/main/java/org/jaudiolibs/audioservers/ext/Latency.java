@@ -0,0 +1,102 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+/**
+ * Latency of the audio server, in frames. Libraries that support this
+ * extension should include an instance in the AudioConfiguration passed to the
+ * AudioClient. The input latency is the time between audio arriving at the
+ * device and being passed to the client. The output latency is the time
+ * between the client processing audio and it leaving the device. Values may
+ * be nominal, calculated from buffer sizes, rather than measured.
+ *
+ */
+public final class Latency {
+
+    private final int inputLatency;
+    private final int outputLatency;
+
+    /**
+     * Create a Latency extension.
+     *
+     * @param inputLatency input latency in frames
+     * @param outputLatency output latency in frames
+     */
+    public Latency(int inputLatency, int outputLatency) {
+        if (inputLatency < 0 || outputLatency < 0) {
+            throw new IllegalArgumentException("Latency cannot be less than zero");
+        }
+        this.inputLatency = inputLatency;
+        this.outputLatency = outputLatency;
+    }
+
+    /**
+     * Get the input latency.
+     *
+     * @return input latency in frames
+     */
+    public int getInputLatency() {
+        return inputLatency;
+    }
+
+    /**
+     * Get the output latency.
+     *
+     * @return output latency in frames
+     */
+    public int getOutputLatency() {
+        return outputLatency;
+    }
+
+    /**
+     * Get the round trip latency from input to output.
+     *
+     * @return round trip latency in frames
+     */
+    public int getRoundTripLatency() {
+        return inputLatency + outputLatency;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Latency) {
+            Latency other = (Latency) obj;
+            return other.inputLatency == inputLatency
+                    && other.outputLatency == outputLatency;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * inputLatency + outputLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "Latency (input: " + inputLatency + ", output: " + outputLatency + ")";
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+/**
+ * Measured round trip latency, in frames, as found by
+ * {@link org.jaudiolibs.audioservers.util.LatencyCalibrator}. This is the
+ * number of frames between a client writing a sample to an output channel and
+ * receiving it back on an input channel through an external loopback, and
+ * includes any latency the server or driver fails to report.
+ * <p>
+ * Include an instance in the AudioConfiguration passed to a server to make
+ * the measurement available to clients for latency compensation. Libraries
+ * that support this extension pass it through to the AudioClient.
+ */
+public final class MeasuredLatency {
+
+    private final int roundTripLatency;
+
+    /**
+     * Create a MeasuredLatency extension.
+     *
+     * @param roundTripLatency measured round trip latency in frames
+     */
+    public MeasuredLatency(int roundTripLatency) {
+        if (roundTripLatency < 0) {
+            throw new IllegalArgumentException("Latency cannot be less than zero");
+        }
+        this.roundTripLatency = roundTripLatency;
+    }
+
+    /**
+     * Get the measured round trip latency.
+     *
+     * @return round trip latency in frames
+     */
+    public int getRoundTripLatency() {
+        return roundTripLatency;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof MeasuredLatency) {
+            return ((MeasuredLatency) obj).roundTripLatency == roundTripLatency;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return roundTripLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "MeasuredLatency (round trip: " + roundTripLatency + ")";
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+/**
+ * This extension can be used to request that the AudioServer runs the
+ * AudioClient one buffer ahead of the device on a separate thread. While the
+ * device thread passes one buffer to the device, the client is processing the
+ * next. This adds one buffer of latency, in exchange for close to an extra
+ * core of processing time.
+ *
+ * When pipelining is active, the AudioClient's process() method is not called
+ * from the thread in which the server was run. Libraries that support this
+ * extension should include the {@link Latency} extension in the
+ * AudioConfiguration passed to the AudioClient, including the additional
+ * latency.
+ *
+ */
+public final class Pipelining {
+
+    public final static Pipelining NONE = new Pipelining(0);
+    public final static Pipelining DOUBLE_BUFFERED = new Pipelining(1);
+
+    private final int blocks;
+
+    private Pipelining(int blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * The number of buffers the client runs ahead of the device.
+     *
+     * @return additional latency in buffers
+     */
+    public int getAdditionalBuffers() {
+        return blocks;
+    }
+
+    @Override
+    public String toString() {
+        return blocks == 0 ? "Pipelining.NONE" : "Pipelining.DOUBLE_BUFFERED";
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+import java.util.Arrays;
+
+/**
+ * Processing load of the AudioClient, measured by the server as the time
+ * spent in the client's process() method against the duration of the buffer.
+ * Libraries that support this extension include an instance in the
+ * AudioConfiguration passed to the AudioClient, and update it once per cycle
+ * from the audio thread.
+ * <p>
+ * The load is smoothed with a fast attack and a slow release, so that it
+ * reacts quickly to rising load and does not drop back on a single light
+ * cycle. The smoothed load is mapped to a discrete quality level, where zero
+ * is full quality and each higher level is entered as the load rises above
+ * the next threshold. A level is only left once the load falls below its
+ * threshold by the hysteresis, so that levels do not flap around a threshold.
+ * Clients can use the level to degrade gracefully - eg. cheaper
+ * interpolation or fewer voices - before deadlines are missed.
+ * <p>
+ * To choose thresholds or smoothing, include a ProcessingLoad in the requested
+ * AudioConfiguration - servers will use that instance rather than creating
+ * their own. The query methods may be called from any thread.
+ */
+public final class ProcessingLoad {
+
+    /**
+     * Default level thresholds.
+     */
+    public final static double[] DEFAULT_THRESHOLDS = {0.5, 0.7, 0.85};
+
+    /**
+     * Default hysteresis.
+     */
+    public final static double DEFAULT_HYSTERESIS = 0.1;
+
+    private final static double DEFAULT_ATTACK = 0.05;
+    private final static double DEFAULT_RELEASE = 1;
+
+    private final double[] thresholds;
+    private final double hysteresis;
+    private final double attack;
+    private final double release;
+
+    // filter state - only accessed by the server thread
+    private double sampleRate;
+    private int lastFrames;
+    private double bufferNanos;
+    private double attackCoeff;
+    private double releaseCoeff;
+    private double smoothed;
+
+    // published state
+    private volatile double load;
+    private volatile double cycleLoad;
+    private volatile double peak;
+    private volatile int level;
+
+    /**
+     * Create a ProcessingLoad with the default thresholds, hysteresis and
+     * smoothing.
+     */
+    public ProcessingLoad() {
+        this(DEFAULT_THRESHOLDS, DEFAULT_HYSTERESIS, DEFAULT_ATTACK, DEFAULT_RELEASE);
+    }
+
+    /**
+     * Create a ProcessingLoad with the given thresholds and hysteresis, and
+     * the default smoothing.
+     *
+     * @param thresholds ascending load thresholds of each level above zero
+     * @param hysteresis amount the load must fall below a threshold to leave
+     * its level
+     */
+    public ProcessingLoad(double[] thresholds, double hysteresis) {
+        this(thresholds, hysteresis, DEFAULT_ATTACK, DEFAULT_RELEASE);
+    }
+
+    /**
+     * Create a ProcessingLoad.
+     *
+     * @param thresholds ascending load thresholds of each level above zero
+     * @param hysteresis amount the load must fall below a threshold to leave
+     * its level
+     * @param attack smoothing time constant for rising load, in seconds
+     * @param release smoothing time constant for falling load, in seconds
+     */
+    public ProcessingLoad(double[] thresholds, double hysteresis,
+            double attack, double release) {
+        double[] t = thresholds.clone();
+        for (int i = 0; i < t.length; i++) {
+            if (!(t[i] > 0) || (i > 0 && t[i] <= t[i - 1])) {
+                throw new IllegalArgumentException("Thresholds must be positive and ascending");
+            }
+        }
+        if (!(hysteresis >= 0) || !(attack >= 0) || !(release >= 0)) {
+            throw new IllegalArgumentException();
+        }
+        this.thresholds = t;
+        this.hysteresis = hysteresis;
+        this.attack = attack;
+        this.release = release;
+    }
+
+    /**
+     * Get the level thresholds.
+     *
+     * @return copy of thresholds
+     */
+    public double[] getThresholds() {
+        return thresholds.clone();
+    }
+
+    /**
+     * Get the hysteresis.
+     *
+     * @return hysteresis
+     */
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * Get the number of levels, including level zero.
+     *
+     * @return level count
+     */
+    public int getLevelCount() {
+        return thresholds.length + 1;
+    }
+
+    /**
+     * Get the smoothed load, as a ratio of process time to buffer time. A
+     * load of 1 or more means the client cannot keep up.
+     *
+     * @return smoothed load
+     */
+    public double getLoad() {
+        return load;
+    }
+
+    /**
+     * Get the unsmoothed load of the last cycle.
+     *
+     * @return load of last cycle
+     */
+    public double getCycleLoad() {
+        return cycleLoad;
+    }
+
+    /**
+     * Get the highest load of any cycle since the last call to
+     * {@link #resetPeak()}.
+     *
+     * @return peak load
+     */
+    public double getPeakLoad() {
+        return peak;
+    }
+
+    /**
+     * Reset the peak load.
+     */
+    public void resetPeak() {
+        peak = 0;
+    }
+
+    /**
+     * Get the quality level, from zero (full quality) to
+     * {@link #getLevelCount()} - 1 (highest load).
+     *
+     * @return level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Reset the load for the given sample rate. For use by servers.
+     *
+     * @param sampleRate sample rate
+     */
+    public void reset(float sampleRate) {
+        this.sampleRate = sampleRate;
+        lastFrames = 0;
+        smoothed = 0;
+        load = 0;
+        cycleLoad = 0;
+        level = 0;
+    }
+
+    /**
+     * Update the load from the time spent processing a buffer. For use by
+     * servers, from the audio thread.
+     *
+     * @param processNanos time spent in process() in nanoseconds
+     * @param nframes buffer size in frames
+     */
+    public void update(long processNanos, int nframes) {
+        if (nframes != lastFrames) {
+            lastFrames = nframes;
+            double period = nframes / sampleRate;
+            bufferNanos = period * 1e9;
+            attackCoeff = attack > 0 ? 1 - Math.exp(-period / attack) : 1;
+            releaseCoeff = release > 0 ? 1 - Math.exp(-period / release) : 1;
+        }
+        double current = processNanos / bufferNanos;
+        cycleLoad = current;
+        if (current > peak) {
+            peak = current;
+        }
+        smoothed += (current - smoothed)
+                * (current > smoothed ? attackCoeff : releaseCoeff);
+        load = smoothed;
+        int lvl = level;
+        while (lvl < thresholds.length && smoothed > thresholds[lvl]) {
+            lvl++;
+        }
+        while (lvl > 0 && smoothed < thresholds[lvl - 1] - hysteresis) {
+            lvl--;
+        }
+        level = lvl;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessingLoad (thresholds " + Arrays.toString(thresholds)
+                + ", hysteresis " + hysteresis + ")";
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.ext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extension to request a deadline watchdog on the AudioClient. A cycle where
+ * the client's process() method takes longer than the deadline is counted as
+ * a miss. Where the server can, it substitutes audio for the device while the
+ * client is late, so that a stalled client does not stall the device. After
+ * a number of misses, the client can be bypassed - it is no longer called and
+ * the server outputs silence until {@link #reset()} is called.
+ * <p>
+ * Libraries that support this extension include the instance in the
+ * AudioConfiguration passed to the AudioClient. The query methods may be
+ * called from any thread.
+ */
+public final class Watchdog {
+
+    /**
+     * Audio substituted for the device while the client is late.
+     */
+    public static enum Substitution {
+
+        /**
+         * Output silence.
+         */
+        SILENCE,
+        /**
+         * Repeat the last buffer the client completed in time, once, followed
+         * by silence.
+         */
+        LAST_GOOD
+
+    }
+
+    private final double deadline;
+    private final Substitution substitution;
+    private final int bypassAfter;
+    private final AtomicLong misses;
+    private final AtomicLong missesSinceReset;
+
+    private volatile boolean bypassed;
+
+    /**
+     * Create a Watchdog with a deadline of one buffer, substituting silence
+     * and never bypassing the client.
+     */
+    public Watchdog() {
+        this(1, Substitution.SILENCE, 0);
+    }
+
+    /**
+     * Create a Watchdog with a deadline of one buffer.
+     *
+     * @param substitution audio to substitute while the client is late
+     * @param bypassAfter misses before the client is bypassed, or zero to
+     * never bypass
+     */
+    public Watchdog(Substitution substitution, int bypassAfter) {
+        this(1, substitution, bypassAfter);
+    }
+
+    /**
+     * Create a Watchdog.
+     *
+     * @param deadline deadline as a multiple of the buffer duration
+     * @param substitution audio to substitute while the client is late
+     * @param bypassAfter misses before the client is bypassed, or zero to
+     * never bypass
+     */
+    public Watchdog(double deadline, Substitution substitution, int bypassAfter) {
+        if (!(deadline > 0) || bypassAfter < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (substitution == null) {
+            throw new NullPointerException();
+        }
+        this.deadline = deadline;
+        this.substitution = substitution;
+        this.bypassAfter = bypassAfter;
+        this.misses = new AtomicLong();
+        this.missesSinceReset = new AtomicLong();
+    }
+
+    /**
+     * Get the deadline, as a multiple of the buffer duration.
+     *
+     * @return deadline
+     */
+    public double getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Get the audio substituted while the client is late.
+     *
+     * @return substitution
+     */
+    public Substitution getSubstitution() {
+        return substitution;
+    }
+
+    /**
+     * Get the number of misses before the client is bypassed.
+     *
+     * @return misses, or zero if the client is never bypassed
+     */
+    public int getBypassAfter() {
+        return bypassAfter;
+    }
+
+    /**
+     * Get the total number of missed deadlines.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Query whether the client is currently bypassed.
+     *
+     * @return bypassed
+     */
+    public boolean isBypassed() {
+        return bypassed;
+    }
+
+    /**
+     * Stop bypassing the client, and restart the count of misses towards
+     * bypassing it.
+     */
+    public void reset() {
+        missesSinceReset.set(0);
+        bypassed = false;
+    }
+
+    /**
+     * Record a missed deadline. For use by servers. This method is lock-free
+     * and may be called from the audio thread.
+     *
+     * @return true if the client should now be bypassed
+     */
+    public boolean miss() {
+        misses.incrementAndGet();
+        long count = missesSinceReset.incrementAndGet();
+        if (bypassAfter > 0 && count >= bypassAfter) {
+            bypassed = true;
+        }
+        return bypassed;
+    }
+
+    @Override
+    public String toString() {
+        return "Watchdog (deadline " + deadline + ", " + substitution
+                + (bypassAfter > 0 ? ", bypass after " + bypassAfter + ")" : ")");
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+
+/**
+ * A utility for checking that code running on the audio thread does not
+ * allocate, using the per-thread allocation counters of
+ * com.sun.management.ThreadMXBean. Not all JVMs support these counters - use
+ * {@link #isSupported()} before creating an instance.
+ *
+ * An AllocationProbe can be used directly, calling {@link #start()} and
+ * {@link #stop()} around the code to check, or via
+ * {@link #measure(AudioClient, AudioConfiguration, int, int)} to check the
+ * process() method of an AudioClient outside of any server.
+ *
+ * To check a server, wrap the AudioClient using
+ * {@link #monitor(AudioClient, int)} and run it in the server as normal. The
+ * returned client measures allocation both inside the wrapped client's
+ * process() method and in the server between calls. Steady-state cycles of an
+ * allocation-free server and client will report zero bytes.
+ *
+ * The cost of reading the counter is calibrated and subtracted from results.
+ */
+public final class AllocationProbe {
+
+    private final static int CALIBRATION_CYCLES = 20000;
+
+    private final com.sun.management.ThreadMXBean bean;
+    private final long overhead;
+
+    private long startBytes;
+
+    /**
+     * Create an AllocationProbe.
+     *
+     * @throws UnsupportedOperationException if allocation counters are not
+     * supported by this JVM
+     */
+    public AllocationProbe() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Thread allocation counters not supported");
+        }
+        bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemoryEnabled()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_CYCLES; i++) {
+            long start = current();
+            min = Math.min(min, current() - start);
+        }
+        overhead = min;
+    }
+
+    /**
+     * Check whether the JVM supports per-thread allocation counters.
+     *
+     * @return true if supported
+     */
+    public static boolean isSupported() {
+        try {
+            Object mx = ManagementFactory.getThreadMXBean();
+            return mx instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported();
+        } catch (LinkageError err) {
+            return false;
+        }
+    }
+
+    /**
+     * Start measuring allocation on the current thread.
+     */
+    public void start() {
+        startBytes = current();
+    }
+
+    /**
+     * Stop measuring allocation. Must be called on the same thread as
+     * {@link #start()}.
+     *
+     * @return bytes allocated by the current thread since start()
+     */
+    public long stop() {
+        return Math.max(0, current() - startBytes - overhead);
+    }
+
+    private long current() {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Drive the process() method of an AudioClient in the current thread and
+     * measure allocation. The client is configured with the provided
+     * configuration, and passed heap buffers. The client is shut down before
+     * this method returns.
+     *
+     * @param client client to check
+     * @param config configuration to pass to client
+     * @param warmupCycles number of cycles to run before measuring
+     * @param cycles number of cycles to measure
+     * @return maximum bytes allocated in any measured cycle
+     * @throws Exception if the client cannot be configured
+     */
+    public static long measure(AudioClient client,
+            AudioConfiguration config,
+            int warmupCycles,
+            int cycles) throws Exception {
+        AllocationProbe probe = new AllocationProbe();
+        int buffersize = config.getMaxBufferSize();
+        List<FloatBuffer> inputs = createBuffers(config.getInputChannelCount(), buffersize);
+        List<FloatBuffer> outputs = createBuffers(config.getOutputChannelCount(), buffersize);
+        double bufferNanos = 1e9 * buffersize / config.getSampleRate();
+        long time = System.nanoTime();
+        long max = 0;
+        client.configure(config);
+        try {
+            for (int i = 0; i < warmupCycles + cycles; i++) {
+                probe.start();
+                client.process(time + (long) (i * bufferNanos), inputs, outputs, buffersize);
+                long bytes = probe.stop();
+                if (i >= warmupCycles) {
+                    max = Math.max(max, bytes);
+                }
+            }
+        } finally {
+            client.shutdown();
+        }
+        return max;
+    }
+
+    private static List<FloatBuffer> createBuffers(int channels, int buffersize) {
+        List<FloatBuffer> buffers = new ArrayList<>(channels);
+        for (int i = 0; i < channels; i++) {
+            buffers.add(FloatBuffer.allocate(buffersize));
+        }
+        return Collections.unmodifiableList(buffers);
+    }
+
+    /**
+     * Wrap an AudioClient to measure allocation in the server and client
+     * while running in any AudioServer.
+     *
+     * @param client client to wrap
+     * @param warmupCycles number of cycles to ignore before measuring
+     * @return monitoring client
+     */
+    public static Monitor monitor(AudioClient client, int warmupCycles) {
+        return new Monitor(client, warmupCycles);
+    }
+
+    /**
+     * An AudioClient wrapper that measures allocation on the audio thread.
+     * Allocation between the end of one call to process() and the start of the
+     * next is attributed to the server. Results may be read from any thread.
+     * Allocation is not measured if the server calls process() from different
+     * threads, or in the first cycle after a change of thread.
+     *
+     * Every cycle is measured, including warmup, and results are masked to
+     * zero until the warmup cycles have passed. Switching measurement on with
+     * a branch would run code the JIT has not seen once warmup is over, and
+     * the resulting deoptimization allocates on the audio thread.
+     */
+    public static final class Monitor implements AudioClient {
+
+        private final AudioClient client;
+        private final int warmupCycles;
+
+        private AllocationProbe probe;
+        private long thread;
+        private long cycle;
+        private volatile long measuredCycles;
+        private volatile long serverBytes;
+        private volatile long clientBytes;
+        private volatile long maxServerBytes;
+        private volatile long maxClientBytes;
+
+        private Monitor(AudioClient client, int warmupCycles) {
+            if (client == null) {
+                throw new NullPointerException();
+            }
+            this.client = client;
+            this.warmupCycles = warmupCycles;
+        }
+
+        @Override
+        public void configure(AudioConfiguration context) throws Exception {
+            probe = new AllocationProbe();
+            thread = -1;
+            cycle = 0;
+            measuredCycles = 0;
+            serverBytes = 0;
+            clientBytes = 0;
+            maxServerBytes = 0;
+            maxClientBytes = 0;
+            client.configure(context);
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs, List<FloatBuffer> outputs, int nframes) {
+            long id = Thread.currentThread().getId();
+            long server = probe.stop();
+            probe.start();
+            boolean ok = client.process(time, inputs, outputs, nframes);
+            long cl = probe.stop();
+            if (id == thread) {
+                // all ones once past warmup, otherwise zero
+                long mask = (warmupCycles - cycle) >> 63;
+                serverBytes = (serverBytes + server) & mask;
+                clientBytes = (clientBytes + cl) & mask;
+                maxServerBytes = Math.max(maxServerBytes, server) & mask;
+                maxClientBytes = Math.max(maxClientBytes, cl) & mask;
+                measuredCycles = (measuredCycles + 1) & mask;
+            }
+            cycle++;
+            thread = id;
+            probe.start();
+            return ok;
+        }
+
+        @Override
+        public void shutdown() {
+            client.shutdown();
+        }
+
+        /**
+         * Number of cycles measured.
+         *
+         * @return measured cycles
+         */
+        public long getMeasuredCycles() {
+            return measuredCycles;
+        }
+
+        /**
+         * Total bytes allocated by the server between calls to process() in
+         * measured cycles.
+         *
+         * @return server allocated bytes
+         */
+        public long getServerAllocatedBytes() {
+            return serverBytes;
+        }
+
+        /**
+         * Total bytes allocated inside the wrapped client's process() method in
+         * measured cycles.
+         *
+         * @return client allocated bytes
+         */
+        public long getClientAllocatedBytes() {
+            return clientBytes;
+        }
+
+        /**
+         * Maximum bytes allocated by the server in any measured cycle.
+         *
+         * @return max server bytes per cycle
+         */
+        public long getMaxServerAllocatedBytes() {
+            return maxServerBytes;
+        }
+
+        /**
+         * Maximum bytes allocated by the wrapped client in any measured cycle.
+         *
+         * @return max client bytes per cycle
+         */
+        public long getMaxClientAllocatedBytes() {
+            return maxClientBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "AllocationProbe.Monitor (cycles: " + measuredCycles
+                    + ", server bytes: " + serverBytes
+                    + ", client bytes: " + clientBytes + ")";
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+
+/**
+ * A pool of preallocated FloatBuffers and float arrays for temporary use
+ * inside process(), eg. by clients that need scratch space or by decorators
+ * wrapping another client.
+ *
+ * Buffers and arrays are grouped into size classes that are power of two
+ * multiples of the maximum buffer size - 1x, 2x, 4x, etc. - so a request for
+ * up to one buffer of audio, or for a whole interleaved buffer or an
+ * oversampled buffer, is satisfied from the smallest class that fits. The
+ * buffers of each class are slices of a single slab, allocated when the pool
+ * is created. Acquire and release are lock-free and never allocate, and may
+ * be called from any thread.
+ *
+ * The contents of acquired buffers and arrays are undefined. Acquired buffers
+ * have position zero and limit set to the requested size. Acquire methods
+ * return null if the matching size class is exhausted.
+ */
+public final class BufferPool {
+
+    private final int maxBufferSize;
+    private final int[] sizes;
+    private final List<ObjectPool<FloatBuffer>> buffers;
+    private final List<ObjectPool<float[]>> arrays;
+
+    /**
+     * Create a BufferPool with heap buffers for the maximum buffer size of
+     * the given configuration, with a single size class.
+     *
+     * @param context audio configuration
+     * @param count number of buffers and arrays in each size class
+     */
+    public BufferPool(AudioConfiguration context, int count) {
+        this(context.getMaxBufferSize(), 1, count, false);
+    }
+
+    /**
+     * Create a BufferPool.
+     *
+     * @param maxBufferSize size of the smallest class, usually the maximum
+     * buffer size of the AudioConfiguration
+     * @param classes number of size classes ( >=1 ), each twice the size of
+     * the last
+     * @param count number of buffers and arrays in each size class
+     * @param direct whether buffers should be direct (native order) rather
+     * than heap buffers
+     */
+    public BufferPool(int maxBufferSize, int classes, int count, boolean direct) {
+        if (maxBufferSize < 1 || classes < 1 || classes > 16 || count < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.maxBufferSize = maxBufferSize;
+        sizes = new int[classes];
+        buffers = new ArrayList<>(classes);
+        arrays = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            int size = maxBufferSize << i;
+            sizes[i] = size;
+            FloatBuffer slab = direct
+                    ? ByteBuffer.allocateDirect(size * count * 4)
+                            .order(ByteOrder.nativeOrder()).asFloatBuffer()
+                    : FloatBuffer.allocate(size * count);
+            int[] next = new int[1];
+            buffers.add(new ObjectPool<>(count, () -> {
+                slab.limit(next[0] + size);
+                slab.position(next[0]);
+                next[0] += size;
+                return slab.slice();
+            }));
+            arrays.add(new ObjectPool<>(count, () -> new float[size]));
+        }
+    }
+
+    /**
+     * Acquire a buffer with at least the given number of floats.
+     *
+     * @param size required size
+     * @return buffer, or null if none available
+     * @throws IllegalArgumentException if size is larger than the largest
+     * class
+     */
+    public FloatBuffer acquireBuffer(int size) {
+        FloatBuffer buffer = buffers.get(sizeClass(size)).acquire();
+        if (buffer != null) {
+            buffer.limit(size);
+        }
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.
+     *
+     * @param buffer buffer acquired from this pool
+     */
+    public void releaseBuffer(FloatBuffer buffer) {
+        buffer.clear();
+        buffers.get(exactClass(buffer.capacity())).release(buffer);
+    }
+
+    /**
+     * Acquire an array with at least the given number of floats. The array
+     * length is that of the size class.
+     *
+     * @param size required size
+     * @return array, or null if none available
+     * @throws IllegalArgumentException if size is larger than the largest
+     * class
+     */
+    public float[] acquireArray(int size) {
+        return arrays.get(sizeClass(size)).acquire();
+    }
+
+    /**
+     * Return an array to the pool.
+     *
+     * @param array array acquired from this pool
+     */
+    public void releaseArray(float[] array) {
+        arrays.get(exactClass(array.length)).release(array);
+    }
+
+    /**
+     * The size of the smallest class.
+     *
+     * @return maximum buffer size
+     */
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * The size of the largest class.
+     *
+     * @return largest acquirable size
+     */
+    public int getLargestSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    private int sizeClass(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (size <= sizes[i]) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Size " + size + " larger than pool");
+    }
+
+    private int exactClass(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (size == sizes[i]) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not from this pool");
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.util.function.Supplier;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+
+/**
+ * A bounded, preallocated queue for passing control messages from any number
+ * of non-realtime threads (UI, network, etc.) into an AudioClient's process()
+ * method without locking or allocation.
+ *
+ * All messages are created up front, each holding a payload object from the
+ * supplied factory. A sending thread obtains a free message, fills in its
+ * payload, and sends it, optionally timestamped relative to
+ * {@link System#nanoTime()}. The client calls
+ * {@link #drain(long, int, Receiver)} at the start of process(), which
+ * delivers every message due within the current buffer in time order, along
+ * with its frame offset into the buffer. Messages timestamped beyond the
+ * current buffer are held for later cycles. Delivered messages are returned
+ * to the pool automatically, so the payload must not be retained by the
+ * receiver.
+ *
+ * <pre>{@code
+ * // any thread
+ * ControlQueue.Message<Command> msg = queue.obtain();
+ * if (msg != null) {
+ *     msg.getPayload().set(...);
+ *     queue.send(msg, System.nanoTime() + delay);
+ * }
+ *
+ * // in process()
+ * queue.drain(time, nframes, receiver);
+ * }</pre>
+ *
+ * The queue must be configured with the AudioConfiguration passed to the
+ * client before drain() is called.
+ *
+ * @param <T> payload type
+ */
+public final class ControlQueue<T> {
+
+    private final int capacity;
+    private final ObjectPool<Message<T>> free;
+    private final AtomicRing<Message<T>> incoming;
+    private final Message<T>[] pending;
+
+    private int pendingCount;
+    private double framesPerNano;
+
+    /**
+     * Create a ControlQueue with the given number of messages, each holding a
+     * payload created by the factory.
+     *
+     * @param capacity number of messages
+     * @param factory payload factory
+     */
+    public ControlQueue(int capacity, Supplier<? extends T> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        free = new ObjectPool<>(capacity, () -> new Message<>(this, factory.get()));
+        incoming = new AtomicRing<>(capacity);
+        // array rather than list so pending messages can be shifted with
+        // arraycopy - it only ever holds messages from this queue
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Message<T>[] array = new Message[capacity];
+        pending = array;
+    }
+
+    /**
+     * Configure the queue for the sample rate of the server. Should be called
+     * from the client's configure() method.
+     *
+     * @param context audio configuration
+     */
+    public void configure(AudioConfiguration context) {
+        framesPerNano = context.getSampleRate() / 1e9;
+    }
+
+    /**
+     * Obtain a free message. May be called from any thread. Returns null if
+     * all messages are in use.
+     *
+     * @return free message or null
+     */
+    public Message<T> obtain() {
+        Message<T> msg = free.acquire();
+        if (msg != null) {
+            msg.immediate = true;
+            msg.time = 0;
+        }
+        return msg;
+    }
+
+    /**
+     * Send a message for delivery at the start of the next buffer. May be
+     * called from any thread.
+     *
+     * @param message message obtained from this queue
+     */
+    public void send(Message<T> message) {
+        check(message);
+        message.immediate = true;
+        message.time = 0;
+        incoming.offer(message);
+    }
+
+    /**
+     * Send a message for delivery at the given time, relative to
+     * {@link System#nanoTime()}. Messages with a time before the current
+     * buffer are delivered at frame zero. May be called from any thread.
+     *
+     * @param message message obtained from this queue
+     * @param time delivery time in nanoseconds
+     */
+    public void send(Message<T> message, long time) {
+        check(message);
+        message.immediate = false;
+        message.time = time;
+        incoming.offer(message);
+    }
+
+    /**
+     * Return an unsent message to the pool. May be called from any thread.
+     *
+     * @param message message obtained from this queue
+     */
+    public void release(Message<T> message) {
+        check(message);
+        free.release(message);
+    }
+
+    /**
+     * Deliver all messages due within the current buffer to the receiver, in
+     * time order, and return them to the pool. Must only be called from the
+     * audio thread, usually at the start of process().
+     *
+     * @param time buffer time as passed to process()
+     * @param nframes buffer size as passed to process()
+     * @param receiver receiver of due messages
+     * @return number of messages delivered
+     */
+    public int drain(long time, int nframes, Receiver<? super T> receiver) {
+        Message<T> msg;
+        while ((msg = incoming.poll()) != null) {
+            insert(msg);
+        }
+        int delivered = 0;
+        while (delivered < pendingCount) {
+            msg = pending[delivered];
+            int frame = msg.immediate ? 0 : frameOffset(msg.time, time);
+            if (frame >= nframes) {
+                break;
+            }
+            receiver.receive(msg.payload, frame);
+            pending[delivered] = null;
+            free.release(msg);
+            delivered++;
+        }
+        if (delivered > 0) {
+            System.arraycopy(pending, delivered, pending, 0, pendingCount - delivered);
+            for (int i = pendingCount - delivered; i < pendingCount; i++) {
+                pending[i] = null;
+            }
+            pendingCount -= delivered;
+        }
+        return delivered;
+    }
+
+    /**
+     * The total number of messages in this queue.
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int frameOffset(long messageTime, long bufferTime) {
+        long delta = messageTime - bufferTime;
+        if (delta <= 0) {
+            return 0;
+        }
+        double frame = delta * framesPerNano;
+        return frame >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) frame;
+    }
+
+    private void insert(Message<T> msg) {
+        // stable insertion sort - immediate messages before timed messages
+        int index = pendingCount;
+        while (index > 0 && after(pending[index - 1], msg)) {
+            pending[index] = pending[index - 1];
+            index--;
+        }
+        pending[index] = msg;
+        pendingCount++;
+    }
+
+    private static boolean after(Message<?> a, Message<?> b) {
+        if (a.immediate) {
+            return false;
+        }
+        return b.immediate || a.time - b.time > 0;
+    }
+
+    private void check(Message<T> message) {
+        if (message.queue != this) {
+            throw new IllegalArgumentException("Message not from this queue");
+        }
+    }
+
+    /**
+     * A message holding a reusable payload.
+     *
+     * @param <T> payload type
+     */
+    public static final class Message<T> {
+
+        private final ControlQueue<T> queue;
+        private final T payload;
+
+        private boolean immediate;
+        private long time;
+
+        private Message(ControlQueue<T> queue, T payload) {
+            this.queue = queue;
+            this.payload = payload;
+        }
+
+        /**
+         * The payload of this message, to be filled in before sending.
+         *
+         * @return payload
+         */
+        public T getPayload() {
+            return payload;
+        }
+
+    }
+
+    /**
+     * Receiver of messages delivered by
+     * {@link ControlQueue#drain(long, int, Receiver)}.
+     *
+     * @param <T> payload type
+     */
+    @FunctionalInterface
+    public static interface Receiver<T> {
+
+        /**
+         * Receive a message payload. The payload is returned to the pool
+         * after this method returns, and must not be retained.
+         *
+         * @param payload message payload
+         * @param frame frame offset into the current buffer
+         */
+        public void receive(T payload, int frame);
+
+    }
+
+}
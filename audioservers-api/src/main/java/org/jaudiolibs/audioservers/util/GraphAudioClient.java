@@ -0,0 +1,589 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+
+/**
+ * An AudioClient that hosts a graph of other AudioClients, running
+ * independent clients in parallel.
+ *
+ * Each client is added as a {@link Node} with a fixed number of input and
+ * output channels. Node outputs may be connected to the inputs of other nodes,
+ * and to the outputs of the graph. Graph inputs may be connected to node
+ * inputs. Each connection declares a dependency - a node will only be processed
+ * once all the nodes it reads from have been processed. Additional ordering
+ * constraints may be declared using {@link #addDependency(Node, Node)}.
+ *
+ * On each call to process(), nodes are dispatched to a pool of spinning worker
+ * threads as soon as their dependencies are satisfied. The audio thread also
+ * takes part in processing, and waits for all nodes to complete before
+ * returning. Multiple node outputs connected to the same graph output are
+ * summed.
+ *
+ * The graph must be built before the client is configured. Nodes that return
+ * false from process(), or throw an Exception, are disconnected and their
+ * outputs silenced for the remainder of the run.
+ */
+public class GraphAudioClient implements AudioClient {
+
+    private final static Logger LOG = Logger.getLogger(GraphAudioClient.class.getName());
+
+    private final static int SPIN_COUNT = 1000;
+
+    private final int threadCount;
+    private final List<Node> nodes;
+    private final List<int[]> inputConnections;
+    private final List<int[]> outputConnections;
+    private final AtomicLong cycle;
+    // ready queue head and slots carry the generation (cycle) in the upper
+    // 32 bits, so a worker stalled across cycles cannot take a stale slot
+    private final AtomicLong head;
+    private final AtomicInteger tail;
+    private final AtomicInteger done;
+
+    private boolean configured;
+    private volatile boolean running;
+    private Node[] graph;
+    private AtomicIntegerArray pending;
+    private AtomicLongArray queue;
+    private long generation;
+    private FloatBuffer[] graphInputs;
+    private FloatBuffer[][] outputSources;
+    private Thread[] workers;
+    private long idleNanos;
+    private long time;
+    private int nframes;
+
+    /**
+     * Create a GraphAudioClient using one worker thread less than the number
+     * of available processors.
+     */
+    public GraphAudioClient() {
+        this(Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Create a GraphAudioClient with the given number of worker threads. The
+     * audio thread also processes nodes, so a value of zero will process all
+     * nodes serially on the audio thread.
+     *
+     * @param threads number of worker threads ( >=0 )
+     */
+    public GraphAudioClient(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.threadCount = threads;
+        nodes = new ArrayList<>();
+        inputConnections = new ArrayList<>();
+        outputConnections = new ArrayList<>();
+        cycle = new AtomicLong();
+        head = new AtomicLong();
+        tail = new AtomicInteger();
+        done = new AtomicInteger();
+    }
+
+    /**
+     * Add a client to the graph.
+     *
+     * @param client client to add
+     * @param inputs number of input channels of the client
+     * @param outputs number of output channels of the client
+     * @return node representing client in graph
+     */
+    public Node addNode(AudioClient client, int inputs, int outputs) {
+        checkNotConfigured();
+        if (client == null) {
+            throw new NullPointerException();
+        }
+        if (inputs < 0 || outputs < 0) {
+            throw new IllegalArgumentException();
+        }
+        Node node = new Node(this, nodes.size(), client, inputs, outputs);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Connect an output channel of one node to an input channel of another.
+     * Each node input may only have one source.
+     *
+     * @param source source node
+     * @param sourceChannel output channel of source node
+     * @param target target node
+     * @param targetChannel input channel of target node
+     */
+    public void connect(Node source, int sourceChannel, Node target, int targetChannel) {
+        checkNotConfigured();
+        checkNode(source);
+        checkNode(target);
+        checkIndex(sourceChannel, source.outputCount);
+        checkIndex(targetChannel, target.inputCount);
+        checkUnconnected(target, targetChannel);
+        target.sources[targetChannel] = source;
+        target.sourceChannels[targetChannel] = sourceChannel;
+        target.dependencies.add(source);
+    }
+
+    /**
+     * Connect an input channel of the graph to an input channel of a node.
+     *
+     * @param input input channel of the graph
+     * @param target target node
+     * @param targetChannel input channel of target node
+     */
+    public void connectInput(int input, Node target, int targetChannel) {
+        checkNotConfigured();
+        checkNode(target);
+        checkIndex(targetChannel, target.inputCount);
+        if (input < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkUnconnected(target, targetChannel);
+        target.sourceChannels[targetChannel] = input;
+        inputConnections.add(new int[]{input, target.index, targetChannel});
+    }
+
+    /**
+     * Connect an output channel of a node to an output channel of the graph.
+     * Multiple node outputs connected to the same graph output will be summed.
+     *
+     * @param source source node
+     * @param sourceChannel output channel of source node
+     * @param output output channel of the graph
+     */
+    public void connectOutput(Node source, int sourceChannel, int output) {
+        checkNotConfigured();
+        checkNode(source);
+        checkIndex(sourceChannel, source.outputCount);
+        if (output < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        outputConnections.add(new int[]{source.index, sourceChannel, output});
+    }
+
+    /**
+     * Declare that one node must always be processed before another, even if
+     * they share no buffers.
+     *
+     * @param before node to process first
+     * @param after node to process after
+     */
+    public void addDependency(Node before, Node after) {
+        checkNotConfigured();
+        checkNode(before);
+        checkNode(after);
+        if (before == after) {
+            throw new IllegalArgumentException();
+        }
+        after.dependencies.add(before);
+    }
+
+    @Override
+    public void configure(AudioConfiguration context) throws Exception {
+        checkNotConfigured();
+        int size = nodes.size();
+        for (int[] con : inputConnections) {
+            checkIndex(con[0], context.getInputChannelCount());
+        }
+        for (int[] con : outputConnections) {
+            checkIndex(con[2], context.getOutputChannelCount());
+        }
+        int[] order = sort();
+        Object[] exts = toArray(context.findAll(Object.class));
+        int bufferSize = context.getMaxBufferSize();
+        graph = new Node[size];
+        for (int i = 0; i < size; i++) {
+            graph[i] = nodes.get(order[i]);
+        }
+        for (Node node : graph) {
+            node.allocate(bufferSize);
+        }
+        graphInputs = new FloatBuffer[context.getInputChannelCount()];
+        for (int i = 0; i < graphInputs.length; i++) {
+            graphInputs[i] = FloatBuffer.allocate(bufferSize);
+        }
+        FloatBuffer silence = FloatBuffer.allocate(bufferSize);
+        for (Node node : graph) {
+            node.connectBuffers(graphInputs, silence);
+        }
+        outputSources = new FloatBuffer[context.getOutputChannelCount()][];
+        for (int out = 0; out < outputSources.length; out++) {
+            List<FloatBuffer> srcs = new ArrayList<>();
+            for (int[] con : outputConnections) {
+                if (con[2] == out) {
+                    srcs.add(nodes.get(con[0]).outputBuffers[con[1]]);
+                }
+            }
+            outputSources[out] = srcs.toArray(new FloatBuffer[srcs.size()]);
+        }
+        for (Node node : graph) {
+            node.client.configure(new AudioConfiguration(
+                    context.getSampleRate(),
+                    node.inputCount,
+                    node.outputCount,
+                    bufferSize,
+                    context.isFixedBufferSize(),
+                    exts));
+            node.active = true;
+        }
+        pending = new AtomicIntegerArray(size);
+        queue = new AtomicLongArray(size);
+        idleNanos = (long) (2e9 * bufferSize / context.getSampleRate());
+        configured = true;
+        running = true;
+        workers = new Thread[Math.min(threadCount, Math.max(size - 1, 0))];
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(new Worker(), "GraphAudioClient Worker " + (i + 1));
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            workers[i] = t;
+            t.start();
+        }
+    }
+
+    @Override
+    public boolean process(long time, List<FloatBuffer> inputs, List<FloatBuffer> outputs, int nframes) {
+        int size = graph.length;
+        for (int i = 0; i < graphInputs.length; i++) {
+            FloatBuffer src = inputs.get(i);
+            FloatBuffer dst = graphInputs[i];
+            for (int n = 0; n < nframes; n++) {
+                dst.put(n, src.get(n));
+            }
+        }
+        this.time = time;
+        this.nframes = nframes;
+        for (int i = 0; i < size; i++) {
+            pending.set(i, graph[i].upstream);
+        }
+        // slots of the previous generation are ignored, so need no reset
+        long gen = ++generation & 0xFFFFFFFFL;
+        done.set(0);
+        tail.set(0);
+        head.set(gen << 32);
+        for (int i = 0; i < size; i++) {
+            if (graph[i].upstream == 0) {
+                push(i, gen);
+            }
+        }
+        cycle.incrementAndGet();
+        while (done.get() < size) {
+            if (!runNext()) {
+                Thread.yield();
+            }
+        }
+        for (int out = 0; out < outputSources.length; out++) {
+            FloatBuffer dst = outputs.get(out);
+            FloatBuffer[] srcs = outputSources[out];
+            for (int n = 0; n < nframes; n++) {
+                dst.put(n, 0);
+            }
+            for (FloatBuffer src : srcs) {
+                for (int n = 0; n < nframes; n++) {
+                    dst.put(n, dst.get(n) + src.get(n));
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        if (workers != null) {
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            workers = null;
+        }
+        if (graph != null) {
+            for (Node node : graph) {
+                node.client.shutdown();
+            }
+        }
+        configured = false;
+    }
+
+    private void push(int node, long gen) {
+        int t = tail.getAndIncrement();
+        queue.set(t, (gen << 32) | (node + 1));
+    }
+
+    private boolean runNext() {
+        long h = head.get();
+        long gen = h >>> 32;
+        int index = (int) h;
+        if (index >= graph.length) {
+            return false;
+        }
+        long slot = queue.get(index);
+        // the slot must have been filled in this generation, and the head
+        // must still be in it when taken
+        if ((int) slot == 0 || (slot >>> 32) != gen
+                || !head.compareAndSet(h, h + 1)) {
+            return false;
+        }
+        Node node = graph[(int) slot - 1];
+        node.process(time, nframes);
+        for (int d : node.downstream) {
+            if (pending.decrementAndGet(d) == 0) {
+                push(d, gen);
+            }
+        }
+        done.incrementAndGet();
+        return true;
+    }
+
+    private int[] sort() {
+        int size = nodes.size();
+        int[] order = new int[size];
+        int[] counts = new int[size];
+        for (Node node : nodes) {
+            counts[node.index] = node.dependencies.size();
+        }
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] == 0) {
+                order[count++] = i;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Node node = nodes.get(order[i]);
+            for (Node other : nodes) {
+                if (other.dependencies.contains(node) && --counts[other.index] == 0) {
+                    order[count++] = other.index;
+                }
+            }
+        }
+        if (count < size) {
+            throw new IllegalStateException("Graph contains a cycle");
+        }
+        int[] position = new int[size];
+        for (int i = 0; i < size; i++) {
+            position[order[i]] = i;
+        }
+        for (Node node : nodes) {
+            node.upstream = node.dependencies.size();
+            List<Integer> down = new ArrayList<>();
+            for (Node other : nodes) {
+                if (other.dependencies.contains(node)) {
+                    down.add(position[other.index]);
+                }
+            }
+            node.downstream = new int[down.size()];
+            for (int i = 0; i < node.downstream.length; i++) {
+                node.downstream[i] = down.get(i);
+            }
+        }
+        return order;
+    }
+
+    private Object[] toArray(Iterable<Object> itr) {
+        List<Object> list = new ArrayList<>();
+        for (Object o : itr) {
+            // channel state describes the graph's channels, not the nodes'
+            if (!(o instanceof ChannelState)) {
+                list.add(o);
+            }
+        }
+        return list.toArray();
+    }
+
+    private void checkNotConfigured() {
+        if (configured) {
+            throw new IllegalStateException("Graph cannot be changed while configured");
+        }
+    }
+
+    private void checkNode(Node node) {
+        if (node.graph != this) {
+            throw new IllegalArgumentException("Node is not part of this graph");
+        }
+    }
+
+    private void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private void checkUnconnected(Node target, int channel) {
+        if (target.sources[channel] != null || target.sourceChannels[channel] >= 0) {
+            throw new IllegalStateException("Input is already connected");
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            long last = cycle.get();
+            long idleStart = System.nanoTime();
+            int spins = 0;
+            while (running) {
+                long current = cycle.get();
+                if (current != last) {
+                    last = current;
+                    while (runNext()) {
+                        // keep taking nodes from the queue
+                    }
+                    spins = 0;
+                    idleStart = System.nanoTime();
+                } else if (runNext()) {
+                    spins = 0;
+                } else if (spins < SPIN_COUNT) {
+                    spins++;
+                } else if (System.nanoTime() - idleStart < idleNanos) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(100000);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A node in the graph, wrapping a single AudioClient.
+     */
+    public static final class Node {
+
+        private final GraphAudioClient graph;
+        private final int index;
+        private final AudioClient client;
+        private final int inputCount;
+        private final int outputCount;
+        private final Node[] sources;
+        private final int[] sourceChannels;
+        private final Set<Node> dependencies;
+
+        private int upstream;
+        private int[] downstream;
+        private FloatBuffer[] outputBuffers;
+        private List<FloatBuffer> inputList;
+        private List<FloatBuffer> outputList;
+        private volatile boolean active;
+
+        private Node(GraphAudioClient graph, int index, AudioClient client,
+                int inputCount, int outputCount) {
+            this.graph = graph;
+            this.index = index;
+            this.client = client;
+            this.inputCount = inputCount;
+            this.outputCount = outputCount;
+            sources = new Node[inputCount];
+            sourceChannels = new int[inputCount];
+            Arrays.fill(sourceChannels, -1);
+            dependencies = new LinkedHashSet<>();
+        }
+
+        /**
+         * Check whether the client is still being processed. Clients are
+         * disconnected if they return false from process() or throw an
+         * Exception or Error.
+         *
+         * @return true if active
+         */
+        public boolean isActive() {
+            return active;
+        }
+
+        private void allocate(int bufferSize) {
+            outputBuffers = new FloatBuffer[outputCount];
+            for (int i = 0; i < outputCount; i++) {
+                outputBuffers[i] = FloatBuffer.allocate(bufferSize);
+            }
+            outputList = Collections.unmodifiableList(Arrays.asList(outputBuffers));
+        }
+
+        private void connectBuffers(FloatBuffer[] graphInputs, FloatBuffer silence) {
+            FloatBuffer[] ins = new FloatBuffer[inputCount];
+            for (int i = 0; i < inputCount; i++) {
+                FloatBuffer src;
+                if (sources[i] != null) {
+                    src = sources[i].outputBuffers[sourceChannels[i]];
+                } else if (sourceChannels[i] >= 0) {
+                    src = graphInputs[sourceChannels[i]];
+                } else {
+                    src = silence;
+                }
+                // independent position and limit for each reader
+                ins[i] = src.duplicate();
+            }
+            inputList = Collections.unmodifiableList(Arrays.asList(ins));
+        }
+
+        private void process(long time, int nframes) {
+            for (int i = 0; i < inputCount; i++) {
+                inputList.get(i).rewind();
+            }
+            for (int i = 0; i < outputCount; i++) {
+                outputBuffers[i].rewind();
+            }
+            if (active) {
+                try {
+                    if (client.process(time, inputList, outputList, nframes)) {
+                        return;
+                    }
+                } catch (Throwable t) {
+                    // errors too - the node must still be counted as done,
+                    // or process() would wait forever for a dead worker
+                    LOG.log(Level.WARNING, "Exception processing graph node", t);
+                }
+                active = false;
+            }
+            for (int i = 0; i < outputCount; i++) {
+                FloatBuffer out = outputBuffers[i];
+                for (int n = 0; n < nframes; n++) {
+                    out.put(n, 0);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.AudioServer;
+import org.jaudiolibs.audioservers.AudioServerProvider;
+import org.jaudiolibs.audioservers.ext.MeasuredLatency;
+
+/**
+ * An AudioClient that measures the round trip latency of an AudioServer
+ * through an external loopback from an output channel to an input channel.
+ * This class can be used with any AudioServer.
+ *
+ * The client plays two periods of a maximum length sequence (MLS) on the
+ * output channel, and captures the second period from the input channel into
+ * a preallocated buffer. A background thread then finds the delay by FFT
+ * cross-correlation with the sequence, and completes the result with a
+ * {@link MeasuredLatency}. The period of the sequence is at least half a
+ * second, which is the maximum latency that can be measured. The audio thread
+ * never blocks or allocates.
+ *
+ * Use {@link #calibrate(AudioServerProvider, AudioConfiguration, int, int)} to
+ * run a complete measurement on a new server.
+ */
+public class LatencyCalibrator implements AudioClient {
+
+    private final static Logger LOG = Logger.getLogger(LatencyCalibrator.class.getName());
+
+    private final static float DEFAULT_AMPLITUDE = 0.5f;
+    private final static double START_DELAY = 0.25;
+    private final static double MIN_PERIOD = 0.5;
+    private final static double MIN_PEAK_RATIO = 10;
+    private final static long POLL_NANOS = 20000000;
+    private final static long TIMEOUT_MARGIN = 5000;
+
+    // LFSR taps of primitive polynomials, indexed by order
+    private final static int[][] TAPS = {
+        null, null, null, null, null, null, null, null, null, null,
+        {10, 7},
+        {11, 9},
+        {12, 11, 10, 4},
+        {13, 12, 11, 8},
+        {14, 13, 12, 2},
+        {15, 14},
+        {16, 15, 13, 4},
+        {17, 14},
+        {18, 11},
+        {19, 18, 17, 14},
+        {20, 17}
+    };
+
+    private final int inputChannel;
+    private final int outputChannel;
+    private final float amplitude;
+    private final CompletableFuture<MeasuredLatency> result;
+
+    private float[] sequence;
+    private float[] capture;
+    private int period;
+    private long startDelay;
+    private long frame;
+    private volatile boolean captured;
+    private volatile boolean running;
+    private Thread worker;
+
+    /**
+     * Create a LatencyCalibrator using the given channels.
+     *
+     * @param inputChannel input channel the loopback returns on
+     * @param outputChannel output channel the loopback is fed from
+     */
+    public LatencyCalibrator(int inputChannel, int outputChannel) {
+        this(inputChannel, outputChannel, DEFAULT_AMPLITUDE);
+    }
+
+    /**
+     * Create a LatencyCalibrator using the given channels and signal level.
+     *
+     * @param inputChannel input channel the loopback returns on
+     * @param outputChannel output channel the loopback is fed from
+     * @param amplitude signal amplitude, greater than 0 and no more than 1
+     */
+    public LatencyCalibrator(int inputChannel, int outputChannel, float amplitude) {
+        if (inputChannel < 0 || outputChannel < 0) {
+            throw new IllegalArgumentException("Invalid channel");
+        }
+        if (!(amplitude > 0 && amplitude <= 1)) {
+            throw new IllegalArgumentException("Invalid amplitude " + amplitude);
+        }
+        this.inputChannel = inputChannel;
+        this.outputChannel = outputChannel;
+        this.amplitude = amplitude;
+        this.result = new CompletableFuture<>();
+    }
+
+    /**
+     * Run a latency measurement on a new server created by the given provider.
+     * The server is shut down once the measurement completes.
+     *
+     * @param provider server provider
+     * @param config server configuration
+     * @param inputChannel input channel the loopback returns on
+     * @param outputChannel output channel the loopback is fed from
+     * @return measured latency
+     * @throws Exception if the server fails, or no loopback signal is detected
+     */
+    public static MeasuredLatency calibrate(AudioServerProvider provider,
+            AudioConfiguration config,
+            int inputChannel, int outputChannel) throws Exception {
+        LatencyCalibrator calibrator = new LatencyCalibrator(inputChannel, outputChannel);
+        AudioServer server = provider.createServer(config, calibrator);
+        Thread runner = new Thread(() -> {
+            try {
+                server.run();
+            } catch (Exception ex) {
+                calibrator.result.completeExceptionally(ex);
+            }
+        }, "LatencyCalibrator Server");
+        runner.start();
+        long timeout = (long) (1000 * (START_DELAY + 2 * MIN_PERIOD * 2)) + TIMEOUT_MARGIN;
+        try {
+            return calibrator.getResult().get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        } catch (TimeoutException ex) {
+            throw new TimeoutException("Latency measurement timed out");
+        } finally {
+            server.shutdown();
+            runner.join();
+        }
+    }
+
+    /**
+     * Get the result of the measurement.
+     *
+     * @return future completed with the measured latency, or exceptionally if
+     * no loopback signal is detected
+     */
+    public CompletableFuture<MeasuredLatency> getResult() {
+        return result;
+    }
+
+    @Override
+    public void configure(AudioConfiguration context) throws Exception {
+        if (inputChannel >= context.getInputChannelCount()) {
+            throw new IllegalArgumentException("Invalid input channel " + inputChannel);
+        }
+        if (outputChannel >= context.getOutputChannelCount()) {
+            throw new IllegalArgumentException("Invalid output channel " + outputChannel);
+        }
+        float srate = context.getSampleRate();
+        int order = 10;
+        while (order < TAPS.length - 1 && (1 << order) - 1 < srate * MIN_PERIOD) {
+            order++;
+        }
+        sequence = sequence(order);
+        period = sequence.length;
+        capture = new float[period];
+        startDelay = (long) (srate * START_DELAY);
+        frame = 0;
+        captured = false;
+        running = true;
+        worker = new Thread(new Analyser(), "LatencyCalibrator Analyser");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public boolean process(long time, List<FloatBuffer> inputs,
+            List<FloatBuffer> outputs, int nframes) {
+        for (int channel = 0; channel < outputs.size(); channel++) {
+            if (channel != outputChannel) {
+                FloatBuffer out = outputs.get(channel);
+                for (int i = 0; i < nframes; i++) {
+                    out.put(i, 0);
+                }
+            }
+        }
+        FloatBuffer out = outputs.get(outputChannel);
+        if (captured) {
+            for (int i = 0; i < nframes; i++) {
+                out.put(i, 0);
+            }
+            return true;
+        }
+        FloatBuffer in = inputs.get(inputChannel);
+        long p = period;
+        for (int i = 0; i < nframes; i++) {
+            long f = frame + i - startDelay;
+            if (f >= 0 && f < 2 * p) {
+                out.put(i, amplitude * sequence[(int) (f % p)]);
+                if (f >= p) {
+                    capture[(int) (f - p)] = in.get(i);
+                }
+            } else {
+                out.put(i, 0);
+            }
+        }
+        frame += nframes;
+        if (frame - startDelay >= 2 * p) {
+            captured = true;
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        if (!result.isDone()) {
+            result.completeExceptionally(new IllegalStateException("Shut down before measurement completed"));
+        }
+    }
+
+    private void analyse() {
+        int p = period;
+        int size = Integer.highestOneBit(3 * p - 1) << 1;
+        double[] cre = new double[size];
+        double[] cim = new double[size];
+        double[] sre = new double[size];
+        double[] sim = new double[size];
+        for (int i = 0; i < p; i++) {
+            cre[i] = capture[i];
+        }
+        for (int i = 0; i < 2 * p; i++) {
+            sre[i] = sequence[i % p];
+        }
+        fft(cre, cim, false);
+        fft(sre, sim, false);
+        // cross spectrum - conj(C) * S
+        for (int i = 0; i < size; i++) {
+            double re = cre[i] * sre[i] + cim[i] * sim[i];
+            double im = cre[i] * sim[i] - cim[i] * sre[i];
+            cre[i] = re;
+            cim[i] = im;
+        }
+        fft(cre, cim, true);
+        // lag j of the correlation corresponds to a delay of period - j
+        int peak = 0;
+        double peakValue = 0;
+        double sumSquares = 0;
+        for (int j = 0; j < p; j++) {
+            double v = Math.abs(cre[j]);
+            sumSquares += v * v;
+            if (v > peakValue) {
+                peakValue = v;
+                peak = j;
+            }
+        }
+        double rms = Math.sqrt(sumSquares / p);
+        double ratio = rms > 0 ? peakValue / rms : 0;
+        if (ratio < MIN_PEAK_RATIO) {
+            LOG.log(Level.FINE, "Correlation peak ratio {0} too low", ratio);
+            result.completeExceptionally(new IllegalStateException("No loopback signal detected"));
+        } else {
+            int latency = (p - peak) % p;
+            LOG.log(Level.FINE, "Measured latency {0} frames, peak ratio {1}",
+                    new Object[]{latency, ratio});
+            result.complete(new MeasuredLatency(latency));
+        }
+    }
+
+    private static float[] sequence(int order) {
+        int[] taps = TAPS[order];
+        int length = (1 << order) - 1;
+        float[] seq = new float[length];
+        int state = 1;
+        for (int i = 0; i < length; i++) {
+            seq[i] = (state & 1) == 0 ? -1 : 1;
+            int feedback = 0;
+            for (int tap : taps) {
+                feedback ^= state >> (order - tap);
+            }
+            state = (state >> 1) | ((feedback & 1) << (order - 1));
+        }
+        return seq;
+    }
+
+    private static void fft(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+            double wre = Math.cos(angle);
+            double wim = Math.sin(angle);
+            int half = len >> 1;
+            for (int i = 0; i < n; i += len) {
+                double ure = 1;
+                double uim = 0;
+                for (int k = 0; k < half; k++) {
+                    int a = i + k;
+                    int b = a + half;
+                    double vre = re[b] * ure - im[b] * uim;
+                    double vim = re[b] * uim + im[b] * ure;
+                    re[b] = re[a] - vre;
+                    im[b] = im[a] - vim;
+                    re[a] += vre;
+                    im[a] += vim;
+                    double t = ure * wre - uim * wim;
+                    uim = ure * wim + uim * wre;
+                    ure = t;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    private class Analyser implements Runnable {
+
+        @Override
+        public void run() {
+            while (running && !captured) {
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+            if (captured) {
+                try {
+                    analyse();
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE, "", ex);
+                    result.completeExceptionally(ex);
+                }
+            }
+        }
+
+    }
+
+}
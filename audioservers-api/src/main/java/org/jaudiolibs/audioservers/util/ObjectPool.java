@@ -0,0 +1,104 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.util.function.Supplier;
+
+/**
+ * A fixed size pool of preallocated objects, for use where objects must be
+ * obtained or recycled on the audio thread. All objects are created when the
+ * pool is constructed, and {@link #acquire()} and {@link #release(Object)}
+ * are lock-free and never allocate. Both may be called from any thread.
+ *
+ * The pool does not track which objects are in use. Releasing an object that
+ * did not come from the pool, or releasing the same object twice, will
+ * corrupt the pool.
+ *
+ * @param <T> type of pooled object
+ */
+public final class ObjectPool<T> {
+
+    private final AtomicRing<T> free;
+    private final int capacity;
+
+    /**
+     * Create an ObjectPool of the given size, filled using the factory.
+     *
+     * @param capacity number of objects
+     * @param factory object factory
+     */
+    public ObjectPool(int capacity, Supplier<? extends T> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        free = new AtomicRing<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.offer(factory.get());
+        }
+    }
+
+    /**
+     * Take an object from the pool, or return null if the pool is empty.
+     *
+     * @return object or null
+     */
+    public T acquire() {
+        return free.poll();
+    }
+
+    /**
+     * Return an object to the pool.
+     *
+     * @param object object previously acquired from this pool
+     * @return false if the pool was already full
+     */
+    public boolean release(T object) {
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        return free.offer(object);
+    }
+
+    /**
+     * The number of objects currently in the pool. The value may be out of
+     * date by the time it is returned if other threads are using the pool.
+     *
+     * @return available objects
+     */
+    public int getAvailable() {
+        return free.size();
+    }
+
+    /**
+     * The total number of objects created by this pool.
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+}
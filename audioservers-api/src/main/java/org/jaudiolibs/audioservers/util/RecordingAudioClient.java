@@ -0,0 +1,446 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+
+/**
+ * An AudioClient that wraps another AudioClient and records selected input and
+ * output channels to disk. This class can be used with any AudioServer.
+ *
+ * After each call to the wrapped client's process() method the selected
+ * channels are copied into a preallocated ring of blocks. A background thread
+ * drains the ring and writes 32-bit float WAV files, switching to RF64 if a
+ * file grows beyond the 4GB limit of the WAV format. The audio thread never
+ * blocks or allocates - if the ring is full the block is dropped and counted.
+ * See {@link #getDroppedBlockCount()}.
+ *
+ * If a maximum file length is given, recording will rotate to a new file
+ * whenever the limit is reached. Rotated files are numbered by inserting a
+ * sequence number before the file extension (eg. take-0001.wav). Numbering
+ * continues if the client is configured again.
+ */
+public class RecordingAudioClient implements AudioClient {
+
+    private final static Logger LOG = Logger.getLogger(RecordingAudioClient.class.getName());
+
+    private final static int DEFAULT_BUFFER_MILLIS = 2000;
+    private final static int HEADER_SIZE = 92;
+    private final static int JUNK_OFFSET = 12;
+    private final static int FACT_FRAMES_OFFSET = 80;
+    private final static int DATA_SIZE_OFFSET = 88;
+    private final static long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private final AudioClient client;
+    private final Path file;
+    private final int[] inputChannels;
+    private final int[] outputChannels;
+    private final long maxFramesPerFile;
+    private final int bufferMillis;
+    private final AtomicLong writeCount;
+    private final AtomicLong readCount;
+    private final AtomicLong droppedCount;
+    private final AtomicLong recordedFrames;
+
+    private volatile boolean recording;
+    private volatile boolean failed;
+    private int channels;
+    private int blockSize;
+    private int blockCount;
+    private float[] ring;
+    private int[] ringFrames;
+    private Thread writer;
+    private ChannelState channelState;
+    // kept across configure() so rotated files are never overwritten
+    private int fileIndex;
+
+    /**
+     * Create a RecordingAudioClient writing to a single file.
+     *
+     * @param client wrapped client
+     * @param file file to record to
+     * @param inputChannels indexes of input channels to record (may be empty)
+     * @param outputChannels indexes of output channels to record (may be empty)
+     */
+    public RecordingAudioClient(AudioClient client,
+            Path file,
+            int[] inputChannels,
+            int[] outputChannels) {
+        this(client, file, inputChannels, outputChannels, 0, DEFAULT_BUFFER_MILLIS);
+    }
+
+    /**
+     * Create a RecordingAudioClient.
+     *
+     * @param client wrapped client
+     * @param file file to record to
+     * @param inputChannels indexes of input channels to record (may be empty)
+     * @param outputChannels indexes of output channels to record (may be empty)
+     * @param maxFramesPerFile maximum length of each file in frames before
+     * rotating to a new file, or 0 to record to a single file
+     * @param bufferMillis length of the ring between the audio thread and the
+     * writer thread in milliseconds
+     */
+    public RecordingAudioClient(AudioClient client,
+            Path file,
+            int[] inputChannels,
+            int[] outputChannels,
+            long maxFramesPerFile,
+            int bufferMillis) {
+        if (client == null || file == null) {
+            throw new NullPointerException();
+        }
+        if (inputChannels.length + outputChannels.length == 0) {
+            throw new IllegalArgumentException("No channels to record");
+        }
+        if (maxFramesPerFile < 0 || bufferMillis < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.client = client;
+        this.file = file;
+        this.inputChannels = inputChannels.clone();
+        this.outputChannels = outputChannels.clone();
+        this.maxFramesPerFile = maxFramesPerFile;
+        this.bufferMillis = bufferMillis;
+        writeCount = new AtomicLong();
+        readCount = new AtomicLong();
+        droppedCount = new AtomicLong();
+        recordedFrames = new AtomicLong();
+    }
+
+    @Override
+    public void configure(AudioConfiguration context) throws Exception {
+        for (int channel : inputChannels) {
+            if (channel < 0 || channel >= context.getInputChannelCount()) {
+                throw new IllegalArgumentException("Invalid input channel " + channel);
+            }
+        }
+        for (int channel : outputChannels) {
+            if (channel < 0 || channel >= context.getOutputChannelCount()) {
+                throw new IllegalArgumentException("Invalid output channel " + channel);
+            }
+        }
+        client.configure(context);
+        channelState = outputChannels.length > 0
+                ? context.find(ChannelState.class) : null;
+        channels = inputChannels.length + outputChannels.length;
+        blockSize = context.getMaxBufferSize();
+        double blockMillis = 1000.0 * blockSize / context.getSampleRate();
+        blockCount = Math.max(4, (int) Math.ceil(bufferMillis / blockMillis));
+        ring = new float[blockCount * blockSize * channels];
+        ringFrames = new int[blockCount];
+        writeCount.set(0);
+        readCount.set(0);
+        failed = false;
+        Writer w = new Writer(context.getSampleRate(), (long) (blockMillis * 500000));
+        w.open();
+        recording = true;
+        writer = new Thread(w, "RecordingAudioClient Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public boolean process(long time, List<FloatBuffer> inputs, List<FloatBuffer> outputs, int nframes) {
+        boolean ok = client.process(time, inputs, outputs, nframes);
+        boolean silent = false;
+        if (channelState != null) {
+            // recorded outputs must hold real silence
+            silent = channelState.isAllOutputsSilent();
+            channelState.resolveOutputs(outputs, nframes);
+        }
+        if (recording && !failed) {
+            long w = writeCount.get();
+            if (w - readCount.get() >= blockCount) {
+                droppedCount.incrementAndGet();
+            } else {
+                int slot = (int) (w % blockCount);
+                int offset = slot * blockSize * channels;
+                int ch = 0;
+                for (int channel : inputChannels) {
+                    copy(inputs.get(channel), offset + ch++, nframes);
+                }
+                for (int channel : outputChannels) {
+                    copy(outputs.get(channel), offset + ch++, nframes);
+                }
+                ringFrames[slot] = nframes;
+                writeCount.lazySet(w + 1);
+            }
+        }
+        if (silent) {
+            channelState.setAllOutputsSilent();
+        }
+        return ok;
+    }
+
+    private void copy(FloatBuffer buffer, int offset, int nframes) {
+        float[] data = ring;
+        int stride = channels;
+        for (int i = 0, x = offset; i < nframes; i++) {
+            data[x] = buffer.get(i);
+            x += stride;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        recording = false;
+        Thread w = writer;
+        writer = null;
+        if (w != null) {
+            try {
+                w.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        client.shutdown();
+    }
+
+    /**
+     * Get the number of blocks dropped because the writer thread could not keep
+     * up with the audio thread. This method may be called from any thread.
+     *
+     * @return dropped block count
+     */
+    public long getDroppedBlockCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Get the total number of frames written to disk. This method may be
+     * called from any thread.
+     *
+     * @return recorded frames
+     */
+    public long getRecordedFrameCount() {
+        return recordedFrames.get();
+    }
+
+    /**
+     * Check whether recording has stopped due to an I/O error. Details of the
+     * error will be logged.
+     *
+     * @return true if failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private class Writer implements Runnable {
+
+        private final float sampleRate;
+        private final long pollNanos;
+        private final ByteBuffer buffer;
+        private final FloatBuffer floats;
+
+        private FileChannel channel;
+        private long fileFrames;
+
+        private Writer(float sampleRate, long pollNanos) {
+            this.sampleRate = sampleRate;
+            this.pollNanos = Math.max(pollNanos, 100000);
+            buffer = ByteBuffer.allocateDirect(blockSize * channels * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            floats = buffer.asFloatBuffer();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (recording) {
+                    if (!drain()) {
+                        LockSupport.parkNanos(pollNanos);
+                    }
+                }
+                while (drain()) {
+                    // write remaining blocks
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "Error writing recording", ex);
+                failed = true;
+            } finally {
+                try {
+                    close();
+                } catch (IOException ex) {
+                    LOG.log(Level.SEVERE, "Error closing recording", ex);
+                    failed = true;
+                }
+            }
+        }
+
+        private boolean drain() throws IOException {
+            long r = readCount.get();
+            long available = writeCount.get() - r;
+            if (available == 0) {
+                return false;
+            }
+            for (long i = 0; i < available; i++) {
+                int slot = (int) ((r + i) % blockCount);
+                write(slot * blockSize * channels, ringFrames[slot]);
+                readCount.lazySet(r + i + 1);
+            }
+            return true;
+        }
+
+        private void write(int offset, int nframes) throws IOException {
+            int remaining = nframes;
+            while (remaining > 0) {
+                if (channel == null) {
+                    open();
+                }
+                int count = remaining;
+                if (maxFramesPerFile > 0) {
+                    count = (int) Math.min(count, maxFramesPerFile - fileFrames);
+                }
+                floats.clear();
+                floats.put(ring, offset, count * channels);
+                buffer.clear();
+                buffer.limit(count * channels * 4);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                fileFrames += count;
+                recordedFrames.addAndGet(count);
+                offset += count * channels;
+                remaining -= count;
+                if (maxFramesPerFile > 0 && fileFrames >= maxFramesPerFile) {
+                    close();
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            if (channel != null) {
+                return;
+            }
+            Path path = file;
+            if (maxFramesPerFile > 0) {
+                path = rotatedPath(++fileIndex);
+            }
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            fileFrames = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(ascii("RIFF")).putInt(0).put(ascii("WAVE"));
+            // placeholder for ds64 chunk if file exceeds 4GB
+            header.put(ascii("JUNK")).putInt(28);
+            header.position(header.position() + 28);
+            header.put(ascii("fmt ")).putInt(16)
+                    .putShort((short) 3) // IEEE float
+                    .putShort((short) channels)
+                    .putInt((int) sampleRate)
+                    .putInt((int) sampleRate * channels * 4)
+                    .putShort((short) (channels * 4))
+                    .putShort((short) 32);
+            header.put(ascii("fact")).putInt(4).putInt(0);
+            header.put(ascii("data")).putInt(0);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+
+        private void close() throws IOException {
+            FileChannel fc = channel;
+            if (fc == null) {
+                return;
+            }
+            channel = null;
+            try {
+                long dataSize = fileFrames * channels * 4;
+                long riffSize = HEADER_SIZE - 8 + dataSize;
+                ByteBuffer b = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+                if (riffSize <= MAX_RIFF_SIZE) {
+                    b.putInt((int) riffSize).flip();
+                    fc.write(b, 4);
+                    b.clear();
+                    b.putInt((int) fileFrames).flip();
+                    fc.write(b, FACT_FRAMES_OFFSET);
+                    b.clear();
+                    b.putInt((int) dataSize).flip();
+                    fc.write(b, DATA_SIZE_OFFSET);
+                } else {
+                    b.put(ascii("RF64")).putInt(-1).flip();
+                    fc.write(b, 0);
+                    b.clear();
+                    b.put(ascii("ds64")).putInt(28)
+                            .putLong(riffSize)
+                            .putLong(dataSize)
+                            .putLong(fileFrames)
+                            .putInt(0)
+                            .flip();
+                    fc.write(b, JUNK_OFFSET);
+                    b.clear();
+                    b.putInt(-1).flip();
+                    fc.write(b, FACT_FRAMES_OFFSET);
+                    b.clear();
+                    b.putInt(-1).flip();
+                    fc.write(b, DATA_SIZE_OFFSET);
+                }
+            } finally {
+                fc.close();
+            }
+        }
+
+        private Path rotatedPath(int index) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String seq = String.format("-%04d", index);
+            if (dot > 0) {
+                name = name.substring(0, dot) + seq + name.substring(dot);
+            } else {
+                name = name + seq;
+            }
+            return file.resolveSibling(name);
+        }
+
+        private byte[] ascii(String id) {
+            byte[] bytes = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                bytes[i] = (byte) id.charAt(i);
+            }
+            return bytes;
+        }
+
+    }
+
+}
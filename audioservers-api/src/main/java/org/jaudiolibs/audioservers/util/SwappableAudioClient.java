@@ -0,0 +1,363 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+
+/**
+ * An AudioClient decorator that allows the wrapped client to be replaced while
+ * the server is running, without closing the device.
+ *
+ * A call to {@link #swap(AudioClient, int)} configures the new client on a
+ * background thread with the AudioConfiguration this client was configured
+ * with. The new client is then installed at the start of the next call to
+ * process(), optionally crossfading from the old client over a number of
+ * frames, during which both clients are processed. Once the old client is no
+ * longer used it is shut down on the background thread, or if that falls
+ * behind, by the next call to swap() or shutdown(). No allocation or locking
+ * takes place on the audio thread.
+ *
+ * If another swap is requested before a pending client is installed, the
+ * pending client is shut down and its future cancelled. If a swap arrives
+ * during a crossfade, the crossfade is cut short.
+ */
+public final class SwappableAudioClient implements AudioClient {
+
+    private final static Logger LOG = Logger.getLogger(SwappableAudioClient.class.getName());
+
+    private final AtomicReference<Swap> pending;
+    private final AtomicRing<Swap> retired;
+    private final AtomicReference<Swap> overflow;
+    private final ConcurrentLinkedQueue<Swap> requests;
+
+    private volatile AudioConfiguration context;
+    private volatile boolean running;
+    private volatile Thread worker;
+    // guarded by this
+    private boolean shutdown;
+    private volatile AudioClient current;
+    private Swap fading;
+    private int fadeLength;
+    private int fadeRemaining;
+    private List<FloatBuffer> fadeOutputs;
+    private ChannelState channelState;
+
+    /**
+     * Create a SwappableAudioClient wrapping the initial client.
+     *
+     * @param client initial client
+     */
+    public SwappableAudioClient(AudioClient client) {
+        if (client == null) {
+            throw new NullPointerException();
+        }
+        this.current = client;
+        pending = new AtomicReference<>();
+        retired = new AtomicRing<>(16);
+        overflow = new AtomicReference<>();
+        requests = new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public void configure(AudioConfiguration context) throws Exception {
+        int count = context.getOutputChannelCount();
+        List<FloatBuffer> buffers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            buffers.add(FloatBuffer.allocate(context.getMaxBufferSize()));
+        }
+        fadeOutputs = Collections.unmodifiableList(buffers);
+        channelState = context.find(ChannelState.class);
+        current.configure(context);
+        this.context = context;
+    }
+
+    @Override
+    public boolean process(long time, List<FloatBuffer> inputs,
+            List<FloatBuffer> outputs, int nframes) {
+        Swap swap = pending.getAndSet(null);
+        if (swap != null) {
+            if (fading != null) {
+                retire(fading);
+            }
+            swap.old = current;
+            current = swap.client;
+            if (swap.fadeFrames > 0) {
+                fading = swap;
+                fadeLength = swap.fadeFrames;
+                fadeRemaining = swap.fadeFrames;
+            } else {
+                retire(swap);
+            }
+        }
+        if (!current.process(time, inputs, outputs, nframes)) {
+            return false;
+        }
+        if (fading != null) {
+            fade(time, inputs, outputs, nframes);
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            running = false;
+        }
+        Thread w = worker;
+        if (w != null) {
+            LockSupport.unpark(w);
+            try {
+                w.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        cancelRequests();
+        Swap swap = pending.getAndSet(null);
+        if (swap != null) {
+            swap.client.shutdown();
+            swap.future.cancel(false);
+        }
+        if (fading != null) {
+            retire(fading);
+            fading = null;
+        }
+        processRetired();
+        current.shutdown();
+    }
+
+    /**
+     * Replace the current client. The returned future completes once the old
+     * client has been removed and shut down, or completes exceptionally if
+     * the new client fails to configure.
+     *
+     * @param client new client
+     * @param fadeFrames length of crossfade in frames, or zero to switch at
+     * the start of a buffer
+     * @return future completing when the swap is finished
+     * @throws IllegalStateException if this client has not been configured or
+     * has been shut down
+     */
+    public CompletableFuture<Void> swap(AudioClient client, int fadeFrames) {
+        if (client == null) {
+            throw new NullPointerException();
+        }
+        if (fadeFrames < 0) {
+            throw new IllegalArgumentException();
+        }
+        AudioConfiguration ctxt = context;
+        if (ctxt == null) {
+            throw new IllegalStateException("Not configured");
+        }
+        Swap swap = new Swap(client, fadeFrames, ctxt);
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("Shut down");
+            }
+            if (worker == null) {
+                running = true;
+                Thread w = new Thread(this::run, "SwappableAudioClient");
+                w.setDaemon(true);
+                worker = w;
+                w.start();
+            }
+            requests.add(swap);
+        }
+        LockSupport.unpark(worker);
+        // shut down any clients the audio thread was unable to queue
+        processOverflow();
+        return swap.future;
+    }
+
+    /**
+     * The client currently being processed. During a crossfade this is the
+     * new client.
+     *
+     * @return current client
+     */
+    public AudioClient getCurrentClient() {
+        return current;
+    }
+
+    private void fade(long time, List<FloatBuffer> inputs,
+            List<FloatBuffer> outputs, int nframes) {
+        for (int i = 0; i < inputs.size(); i++) {
+            inputs.get(i).rewind();
+        }
+        List<FloatBuffer> fadeOuts = fadeOutputs;
+        // both clients share the channel state - silent flags must be turned
+        // into real silence before the outputs are mixed
+        boolean silent = false;
+        if (channelState != null) {
+            silent = channelState.isAllOutputsSilent();
+            channelState.resolveOutputs(outputs, nframes);
+        }
+        boolean ok = fading.old.process(time, inputs, fadeOuts, nframes);
+        if (channelState != null) {
+            silent &= !ok || channelState.isAllOutputsSilent();
+            channelState.resolveOutputs(fadeOuts, nframes);
+        }
+        if (ok) {
+            float length = fadeLength;
+            int remaining = fadeRemaining;
+            for (int channel = 0; channel < outputs.size(); channel++) {
+                FloatBuffer out = outputs.get(channel);
+                FloatBuffer old = fadeOuts.get(channel);
+                for (int i = 0; i < nframes; i++) {
+                    int r = remaining - i;
+                    if (r <= 0) {
+                        break;
+                    }
+                    float g = r / length;
+                    out.put(i, out.get(i) * (1 - g) + old.get(i) * g);
+                }
+                old.rewind();
+            }
+        }
+        if (silent) {
+            channelState.setAllOutputsSilent();
+        }
+        fadeRemaining -= nframes;
+        if (!ok || fadeRemaining <= 0) {
+            retire(fading);
+            fading = null;
+        }
+    }
+
+    private void retire(Swap swap) {
+        if (!retired.offer(swap)) {
+            // ring is full - link onto the overflow stack without allocating
+            Swap head;
+            do {
+                head = overflow.get();
+                swap.next = head;
+            } while (!overflow.compareAndSet(head, swap));
+        }
+        Thread w = worker;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    private void install(Swap swap) {
+        try {
+            swap.client.configure(swap.context);
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Exception configuring client", ex);
+            swap.future.completeExceptionally(ex);
+            return;
+        }
+        Swap replaced = pending.getAndSet(swap);
+        if (replaced != null) {
+            replaced.client.shutdown();
+            replaced.future.cancel(false);
+        }
+    }
+
+    private void processRetired() {
+        Swap swap;
+        while ((swap = retired.poll()) != null) {
+            finish(swap);
+        }
+        processOverflow();
+    }
+
+    private void processOverflow() {
+        Swap swap = overflow.getAndSet(null);
+        if (swap != null) {
+            LOG.warning("Retired client queue overflowed");
+        }
+        while (swap != null) {
+            Swap next = swap.next;
+            swap.next = null;
+            finish(swap);
+            swap = next;
+        }
+    }
+
+    private void finish(Swap swap) {
+        try {
+            swap.old.shutdown();
+            swap.future.complete(null);
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Exception shutting down client", ex);
+            swap.future.completeExceptionally(ex);
+        }
+    }
+
+    private void cancelRequests() {
+        Swap swap;
+        while ((swap = requests.poll()) != null) {
+            swap.future.cancel(false);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            Swap swap = requests.poll();
+            if (swap != null) {
+                install(swap);
+            }
+            processRetired();
+            if (swap == null) {
+                LockSupport.parkNanos(this, 10_000_000);
+            }
+        }
+        cancelRequests();
+    }
+
+    private static class Swap {
+
+        private final AudioClient client;
+        private final int fadeFrames;
+        private final AudioConfiguration context;
+        private final CompletableFuture<Void> future;
+
+        private AudioClient old;
+        private Swap next;
+
+        private Swap(AudioClient client, int fadeFrames, AudioConfiguration context) {
+            this.client = client;
+            this.fadeFrames = fadeFrames;
+            this.context = context;
+            this.future = new CompletableFuture<>();
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GraphAudioClientTest {
+
+    private final static int LAYERS = 8;
+    private final static int WIDTH = 8;
+    private final static int WORKERS = 6;
+    private final static int CYCLES = 20000;
+    private final static int BUFFER_SIZE = 16;
+
+    /**
+     * Run a layered graph with cross-layer dependencies over many cycles with
+     * more workers than nodes per layer, checking every node runs exactly once
+     * per cycle, after all of its dependencies.
+     */
+    @Test(timeout = 60000)
+    public void stressOrdering() throws Exception {
+        GraphAudioClient graph = new GraphAudioClient(WORKERS);
+        AtomicInteger errors = new AtomicInteger();
+        CountingClient[][] clients = new CountingClient[LAYERS][WIDTH];
+        GraphAudioClient.Node[][] nodes = new GraphAudioClient.Node[LAYERS][WIDTH];
+        for (int l = 0; l < LAYERS; l++) {
+            for (int w = 0; w < WIDTH; w++) {
+                clients[l][w] = new CountingClient(errors);
+                nodes[l][w] = graph.addNode(clients[l][w], 1, 1);
+            }
+        }
+        for (int l = 1; l < LAYERS; l++) {
+            for (int w = 0; w < WIDTH; w++) {
+                CountingClient client = clients[l][w];
+                CountingClient source = clients[l - 1][w];
+                CountingClient other = clients[l - 1][(w + 1) % WIDTH];
+                graph.connect(nodes[l - 1][w], 0, nodes[l][w], 0);
+                graph.addDependency(nodes[l - 1][(w + 1) % WIDTH], nodes[l][w]);
+                client.dependencies = new CountingClient[]{source, other};
+            }
+        }
+        for (int w = 0; w < WIDTH; w++) {
+            graph.connectOutput(nodes[LAYERS - 1][w], 0, 0);
+        }
+        AudioConfiguration config = new AudioConfiguration(48000, 0, 1, BUFFER_SIZE);
+        List<FloatBuffer> inputs = Collections.emptyList();
+        List<FloatBuffer> outputs = new ArrayList<>();
+        outputs.add(FloatBuffer.allocate(BUFFER_SIZE));
+        graph.configure(config);
+        try {
+            for (int cycle = 0; cycle < CYCLES; cycle++) {
+                graph.process(cycle, inputs, outputs, BUFFER_SIZE);
+                // each layer adds one, summed across the last layer
+                assertEquals("cycle " + cycle, LAYERS * WIDTH, outputs.get(0).get(0), 0);
+                assertEquals("cycle " + cycle, 0, errors.get());
+            }
+        } finally {
+            graph.shutdown();
+        }
+        for (int l = 0; l < LAYERS; l++) {
+            for (int w = 0; w < WIDTH; w++) {
+                assertEquals(CYCLES, clients[l][w].runs);
+            }
+        }
+    }
+
+    /**
+     * A node throwing an Error must be deactivated and output silence, without
+     * stalling the cycle on any thread.
+     */
+    @Test(timeout = 10000)
+    public void errorInNode() throws Exception {
+        GraphAudioClient graph = new GraphAudioClient(WORKERS);
+        AtomicInteger errors = new AtomicInteger();
+        GraphAudioClient.Node[] nodes = new GraphAudioClient.Node[WIDTH];
+        for (int w = 0; w < WIDTH; w++) {
+            AudioClient client = w == 0 ? new FailingClient() : new CountingClient(errors);
+            nodes[w] = graph.addNode(client, 1, 1);
+            graph.connectOutput(nodes[w], 0, 0);
+        }
+        AudioConfiguration config = new AudioConfiguration(48000, 0, 1, BUFFER_SIZE);
+        List<FloatBuffer> inputs = Collections.emptyList();
+        List<FloatBuffer> outputs = new ArrayList<>();
+        outputs.add(FloatBuffer.allocate(BUFFER_SIZE));
+        graph.configure(config);
+        try {
+            for (int cycle = 0; cycle < 100; cycle++) {
+                graph.process(cycle, inputs, outputs, BUFFER_SIZE);
+                assertEquals("cycle " + cycle, WIDTH - 1, outputs.get(0).get(0), 0);
+            }
+        } finally {
+            graph.shutdown();
+        }
+        assertFalse(nodes[0].isActive());
+        assertEquals(0, errors.get());
+    }
+
+    private static class FailingClient implements AudioClient {
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            FloatBuffer out = outputs.get(0);
+            for (int i = 0; i < nframes; i++) {
+                out.put(i, 100);
+            }
+            throw new AssertionError("failing node");
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    private static class CountingClient implements AudioClient {
+
+        private final AtomicInteger errors;
+
+        private CountingClient[] dependencies;
+        private volatile long runs;
+
+        private CountingClient(AtomicInteger errors) {
+            this.errors = errors;
+            this.dependencies = new CountingClient[0];
+        }
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            long run = runs + 1;
+            if (time + 1 != run) {
+                // run twice, or skipped in an earlier cycle
+                errors.incrementAndGet();
+            }
+            for (CountingClient dependency : dependencies) {
+                if (dependency.runs != run) {
+                    errors.incrementAndGet();
+                }
+            }
+            FloatBuffer in = inputs.get(0);
+            FloatBuffer out = outputs.get(0);
+            for (int i = 0; i < nframes; i++) {
+                out.put(i, in.get(i) + 1);
+            }
+            runs = run;
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingAudioClientTest {
+
+    private final static int BUFFER_SIZE = 64;
+    private final static int HEADER_SIZE = 92;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Rotated files from an earlier configuration must not be overwritten when
+     * the client is configured again.
+     */
+    @Test(timeout = 10000)
+    public void rotationContinuesAfterReconfigure() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("take.wav");
+        RecordingAudioClient recorder = new RecordingAudioClient(new SilentClient(),
+                file, new int[0], new int[]{0}, BUFFER_SIZE, 100);
+        AudioConfiguration config = new AudioConfiguration(48000, 0, 1,
+                BUFFER_SIZE, true);
+        List<FloatBuffer> outputs = Collections.singletonList(
+                FloatBuffer.allocate(BUFFER_SIZE));
+        List<FloatBuffer> inputs = Collections.emptyList();
+        for (int run = 0; run < 2; run++) {
+            recorder.configure(config);
+            for (int i = 0; i < 2; i++) {
+                recorder.process(0, inputs, outputs, BUFFER_SIZE);
+            }
+            recorder.shutdown();
+        }
+        assertEquals(4 * BUFFER_SIZE, recorder.getRecordedFrameCount());
+        for (int i = 1; i <= 4; i++) {
+            Path rotated = file.resolveSibling(String.format("take-%04d.wav", i));
+            assertTrue(rotated + " missing", Files.exists(rotated));
+            assertEquals(HEADER_SIZE + BUFFER_SIZE * 4, Files.size(rotated));
+        }
+    }
+
+    private static class SilentClient implements AudioClient {
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package org.jaudiolibs.audioservers.util;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SwappableAudioClientTest {
+
+    /**
+     * A client that was never swapped must not start its worker after being
+     * shut down.
+     */
+    @Test(timeout = 10000)
+    public void swapAfterShutdown() throws Exception {
+        SwappableAudioClient swappable = new SwappableAudioClient(new NullClient());
+        swappable.configure(new AudioConfiguration(48000, 0, 2, 64, true));
+        swappable.shutdown();
+        NullClient next = new NullClient();
+        try {
+            swappable.swap(next, 0);
+            fail("Swap accepted after shutdown");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertFalse(workerRunning());
+        assertEquals(0, next.configured);
+    }
+
+    private static boolean workerRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("SwappableAudioClient".equals(thread.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class NullClient implements AudioClient {
+
+        private int configured;
+
+        @Override
+        public void configure(AudioConfiguration context) {
+            configured++;
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+}
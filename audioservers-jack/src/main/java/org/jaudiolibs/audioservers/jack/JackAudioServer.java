@@ -19,18 +19,32 @@
  */
 package org.jaudiolibs.audioservers.jack;
 
+import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jaudiolibs.audioservers.AudioClient;
 import org.jaudiolibs.audioservers.AudioConfiguration;
 import org.jaudiolibs.audioservers.AudioServer;
+import org.jaudiolibs.audioservers.DoubleAudioClient;
+import org.jaudiolibs.audioservers.InterleavedAudioClient;
+import org.jaudiolibs.audioservers.ext.AudioClock;
+import org.jaudiolibs.audioservers.ext.ChannelRouting;
+import org.jaudiolibs.audioservers.ext.ChannelState;
 import org.jaudiolibs.audioservers.ext.ClientID;
 import org.jaudiolibs.audioservers.ext.Connections;
+import org.jaudiolibs.audioservers.ext.MeasuredLatency;
+import org.jaudiolibs.audioservers.ext.ProcessingLoad;
+import org.jaudiolibs.audioservers.ext.Watchdog;
+import org.jaudiolibs.audioservers.util.SwappableAudioClient;
 import org.jaudiolibs.jnajack.Jack;
 import org.jaudiolibs.jnajack.JackClient;
 import org.jaudiolibs.jnajack.JackException;
@@ -65,6 +79,31 @@ public class JackAudioServer implements AudioServer {
     private List<FloatBuffer> inputBuffers;
     private JackPort[] outputPorts;
     private List<FloatBuffer> outputBuffers;
+    private PortBuffers portBuffers;
+    private int inputPortCount;
+    private int outputPortCount;
+    private InterleavedAudioClient interleavedClient;
+    private FloatBuffer interleavedInput;
+    private FloatBuffer interleavedOutput;
+    private DoubleAudioClient doubleClient;
+    private List<DoubleBuffer> inputDoubles;
+    private List<DoubleBuffer> outputDoubles;
+    private ChannelRouting routing;
+    private volatile SwappableAudioClient swapper;
+    private ChannelState channelState;
+    private AudioClock clock;
+    private ProcessingLoad load;
+    private Watchdog watchdog;
+    private long deadlineNanos;
+    private AtomicIntegerArray inputConnected;
+    private FloatBuffer[] inputPortBuffers;
+    private FloatBuffer[] outputPortBuffers;
+    private int[] inputRouteSources;
+    private int[] inputRouteTargets;
+    private float[] inputRouteGains;
+    private int[] outputRouteSources;
+    private int[] outputRouteTargets;
+    private float[] outputRouteGains;
 
     JackAudioServer(
             ClientID id,
@@ -88,14 +127,14 @@ public class JackAudioServer implements AudioServer {
         } catch (Exception ex) {
             state.set(State.Terminated);
             closeAll();
-            client.shutdown();
+            activeClient().shutdown();
             throw ex;
         }
         if (state.compareAndSet(State.Initialising, State.Active)) {
             runImpl();
         }
         closeAll();
-        client.shutdown();
+        activeClient().shutdown();
         state.set(State.Terminated);
     }
 
@@ -113,23 +152,57 @@ public class JackAudioServer implements AudioServer {
             throw ex;
         }
         LOG.log(Level.FINE, "JACK client created\nStatus set\n{0}", status);
-        int count = context.getInputChannelCount();
-        inputPorts = new JackPort[count];
-        inputBuffers = Arrays.asList(new FloatBuffer[count]);
-        for (int i = 0; i < count; i++) {
+        initialiseChannels();
+        inputPorts = new JackPort[inputPortCount];
+        for (int i = 0; i < inputPortCount; i++) {
             inputPorts[i] = jackclient.registerPort("Input_" + (i + 1),
                     JackPortType.AUDIO, JackPortFlags.JackPortIsInput);
         }
-        count = context.getOutputChannelCount();
-        outputPorts = new JackPort[count];
-        outputBuffers = Arrays.asList(new FloatBuffer[count]);
-        for (int i = 0; i < count; i++) {
+        outputPorts = new JackPort[outputPortCount];
+        for (int i = 0; i < outputPortCount; i++) {
             outputPorts[i] = jackclient.registerPort("Output_" + (i + 1),
                     JackPortType.AUDIO, JackPortFlags.JackPortIsOutput);
         }
+        portBuffers = new JackPortBuffers(inputPorts, outputPorts);
 
     }
 
+    private void initialiseChannels() {
+        routing = context.find(ChannelRouting.class);
+        if (routing != null) {
+            routing.validate(context.getInputChannelCount(),
+                    context.getOutputChannelCount());
+        }
+        inputPortCount = routing == null ? context.getInputChannelCount()
+                : routing.getDeviceInputChannelCount();
+        inputBuffers = Arrays.asList(new FloatBuffer[context.getInputChannelCount()]);
+        outputPortCount = routing == null ? context.getOutputChannelCount()
+                : routing.getDeviceOutputChannelCount();
+        outputBuffers = Arrays.asList(new FloatBuffer[context.getOutputChannelCount()]);
+    }
+
+    /**
+     * Start the server against the given port buffers instead of a JACK
+     * client, for testing the cycle code without a JACK server. The client is
+     * configured, and cycles must then be driven by calling
+     * {@link #processCycle(int)} from a single thread.
+     *
+     * @param ports port buffers for each cycle
+     * @param sampleRate sample rate
+     * @param bufferSize buffer size
+     * @throws Exception if the client cannot be configured
+     */
+    void startWithoutJack(PortBuffers ports, int sampleRate, int bufferSize)
+            throws Exception {
+        if (!state.compareAndSet(State.New, State.Initialising)) {
+            throw new IllegalStateException();
+        }
+        initialiseChannels();
+        this.portBuffers = ports;
+        configureClient(clientID, sampleRate, bufferSize, null);
+        state.set(State.Active);
+    }
+
     private void runImpl() {
         try {
             // make sure context is correct.
@@ -138,15 +211,11 @@ public class JackAudioServer implements AudioServer {
             if (!id.getIdentifier().equals(actualID)) {
                 id = new ClientID(actualID);
             }
-            context = new AudioConfiguration(jackclient.getSampleRate(),
-                    inputPorts.length,
-                    outputPorts.length,
-                    jackclient.getBufferSize(),
-                    id,
-                    connections,
-                    jackclient);
-            LOG.log(Level.FINE, "Configuring AudioClient\n{0}", context);
-            client.configure(context);
+            configureClient(id, jackclient.getSampleRate(),
+                    jackclient.getBufferSize(), jackclient);
+            if (inputConnected != null) {
+                updateConnections();
+            }
             jackclient.setProcessCallback(new Callback());
             jackclient.onShutdown(new ShutDownHook());
             jackclient.activate();
@@ -156,8 +225,18 @@ public class JackAudioServer implements AudioServer {
             if (connections.isConnectOutputs()) {
                 connectOutputs();
             }
+            long misses = 0;
             while (state.get() == State.Active) {
                 Thread.sleep(100); // @TODO switch to wait()
+                if (inputConnected != null) {
+                    updateConnections();
+                }
+                if (watchdog != null && watchdog.getMissCount() != misses) {
+                    // misses are recorded on the process thread but logged here
+                    misses = watchdog.getMissCount();
+                    LOG.log(Level.WARNING, "Client missed deadline - {0} misses{1}",
+                            new Object[]{misses, watchdog.isBypassed() ? ", bypassed" : ""});
+                }
             }
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, "", ex);
@@ -165,6 +244,109 @@ public class JackAudioServer implements AudioServer {
         }
     }
 
+    private void configureClient(ClientID id, int sampleRate, int bufferSize,
+            Object platform) throws Exception {
+        boolean interleaved = routing == null
+                && client instanceof InterleavedAudioClient;
+        List<Object> exts = new ArrayList<>();
+        exts.add(id);
+        exts.add(connections);
+        if (routing != null) {
+            exts.add(routing);
+        }
+        if (!interleaved) {
+            channelState = new ChannelState(inputBuffers.size(), outputBuffers.size());
+            inputConnected = new AtomicIntegerArray(inputBuffers.size());
+            exts.add(channelState);
+        }
+        clock = context.find(AudioClock.class);
+        if (clock == null) {
+            clock = new AudioClock();
+        }
+        clock.reset(sampleRate, bufferSize);
+        exts.add(clock);
+        load = context.find(ProcessingLoad.class);
+        if (load == null) {
+            load = new ProcessingLoad();
+        }
+        load.reset(sampleRate);
+        exts.add(load);
+        watchdog = context.find(Watchdog.class);
+        if (watchdog != null) {
+            deadlineNanos = (long) (watchdog.getDeadline() * 1e9
+                    * bufferSize / sampleRate);
+            exts.add(watchdog);
+        }
+        MeasuredLatency measuredLatency = context.find(MeasuredLatency.class);
+        if (measuredLatency != null) {
+            exts.add(measuredLatency);
+        }
+        if (platform != null) {
+            exts.add(platform);
+        }
+        context = new AudioConfiguration(sampleRate,
+                inputBuffers.size(),
+                outputBuffers.size(),
+                bufferSize,
+                exts.toArray());
+        if (routing != null) {
+            createRoutedBuffers();
+        }
+        if (interleaved) {
+            interleavedClient = (InterleavedAudioClient) client;
+            int buffersize = context.getMaxBufferSize();
+            interleavedInput = FloatBuffer.allocate(buffersize * inputPortCount);
+            interleavedOutput = FloatBuffer.allocate(buffersize * outputPortCount);
+        } else if (routing == null && client instanceof DoubleAudioClient) {
+            doubleClient = (DoubleAudioClient) client;
+            int buffersize = context.getMaxBufferSize();
+            inputDoubles = createDoubleBuffers(inputPortCount, buffersize);
+            outputDoubles = createDoubleBuffers(outputPortCount, buffersize);
+        } else {
+            swapper = new SwappableAudioClient(client);
+        }
+        LOG.log(Level.FINE, "Configuring AudioClient\n{0}", context);
+        activeClient().configure(context);
+    }
+
+    private List<DoubleBuffer> createDoubleBuffers(int channels, int buffersize) {
+        DoubleBuffer[] buffers = new DoubleBuffer[channels];
+        for (int i = 0; i < channels; i++) {
+            buffers[i] = DoubleBuffer.allocate(buffersize);
+        }
+        return Collections.unmodifiableList(Arrays.asList(buffers));
+    }
+
+    private void createRoutedBuffers() {
+        int buffersize = context.getMaxBufferSize();
+        for (int i = 0; i < inputBuffers.size(); i++) {
+            inputBuffers.set(i, FloatBuffer.allocate(buffersize));
+        }
+        for (int i = 0; i < outputBuffers.size(); i++) {
+            outputBuffers.set(i, FloatBuffer.allocate(buffersize));
+        }
+        inputPortBuffers = new FloatBuffer[inputPortCount];
+        outputPortBuffers = new FloatBuffer[outputPortCount];
+        List<ChannelRouting.Route> routes = routing.getInputRoutes();
+        inputRouteSources = new int[routes.size()];
+        inputRouteTargets = new int[routes.size()];
+        inputRouteGains = new float[routes.size()];
+        for (int i = 0; i < routes.size(); i++) {
+            inputRouteSources[i] = routes.get(i).getSource();
+            inputRouteTargets[i] = routes.get(i).getTarget();
+            inputRouteGains[i] = routes.get(i).getGain();
+        }
+        routes = routing.getOutputRoutes();
+        outputRouteSources = new int[routes.size()];
+        outputRouteTargets = new int[routes.size()];
+        outputRouteGains = new float[routes.size()];
+        for (int i = 0; i < routes.size(); i++) {
+            outputRouteSources[i] = routes.get(i).getSource();
+            outputRouteTargets[i] = routes.get(i).getTarget();
+            outputRouteGains[i] = routes.get(i).getGain();
+        }
+    }
+
     private void connectInputs() {
         try {
             String[] ins = jack.getPorts(jackclient, null, JackPortType.AUDIO,
@@ -193,36 +375,223 @@ public class JackAudioServer implements AudioServer {
 
     }
 
-    private void processBuffers(int nframes) {
-        for (int i = 0; i < inputPorts.length; i++) {
-            inputBuffers.set(i, inputPorts[i].getFloatBuffer());
+    private void updateConnections() {
+        // polled off the audio thread - the process callback only reads flags
+        try {
+            boolean[] ports = new boolean[inputPorts.length];
+            for (int i = 0; i < ports.length; i++) {
+                String[] cons = jack.getAllConnections(jackclient, inputPorts[i].getName());
+                ports[i] = cons != null && cons.length > 0;
+            }
+            for (int channel = 0; channel < inputConnected.length(); channel++) {
+                boolean connected = false;
+                if (routing == null) {
+                    connected = ports[channel];
+                } else {
+                    for (int r = 0; r < inputRouteSources.length; r++) {
+                        if (inputRouteTargets[r] == channel && ports[inputRouteSources[r]]) {
+                            connected = true;
+                            break;
+                        }
+                    }
+                }
+                inputConnected.set(channel, connected ? 1 : 0);
+            }
+        } catch (JackException ex) {
+            LOG.log(Level.FINE, "Unable to query port connections", ex);
         }
-        for (int i = 0; i < outputPorts.length; i++) {
-            outputBuffers.set(i, outputPorts[i].getFloatBuffer());
+    }
 
+    private void updateChannelState() {
+        for (int channel = 0; channel < inputConnected.length(); channel++) {
+            boolean unconnected = inputConnected.get(channel) == 0;
+            channelState.setInputState(channel, unconnected, unconnected, unconnected);
         }
-        client.process(System.nanoTime(), inputBuffers, outputBuffers, nframes);
+        channelState.clearOutputs();
     }
 
-    private class Callback implements JackProcessCallback {
+    private AudioClient activeClient() {
+        SwappableAudioClient s = swapper;
+        return s == null ? client : s;
+    }
 
-        @Override
-        public boolean process(JackClient client, int nframes) {
-            if (state.get() != State.Active) {
-                return false;
+    private void processBuffers(long time, int nframes) {
+        if (interleavedClient != null) {
+            processInterleaved(time, nframes);
+            return;
+        }
+        if (doubleClient != null) {
+            processDouble(time, nframes);
+            return;
+        }
+        if (routing != null) {
+            processRouted(time, nframes);
+            return;
+        }
+        for (int i = 0; i < inputPortCount; i++) {
+            inputBuffers.set(i, portBuffers.getInputBuffer(i));
+        }
+        for (int i = 0; i < outputPortCount; i++) {
+            outputBuffers.set(i, portBuffers.getOutputBuffer(i));
+
+        }
+        updateChannelState();
+        swapper.process(time, inputBuffers, outputBuffers, nframes);
+        // port buffers are not cleared by JACK
+        channelState.resolveOutputs(outputBuffers, nframes);
+    }
+
+    private void processInterleaved(long time, int nframes) {
+        int channels = inputPortCount;
+        for (int channel = 0; channel < channels; channel++) {
+            FloatBuffer inBuf = portBuffers.getInputBuffer(channel);
+            for (int i = 0, x = channel; i < nframes; i++) {
+                interleavedInput.put(x, inBuf.get(i));
+                x += channels;
+            }
+        }
+        interleavedInput.rewind();
+        interleavedOutput.rewind();
+        interleavedClient.processInterleaved(time,
+                interleavedInput, interleavedOutput, nframes);
+        channels = outputPortCount;
+        for (int channel = 0; channel < channels; channel++) {
+            FloatBuffer outBuf = portBuffers.getOutputBuffer(channel);
+            for (int i = 0, x = channel; i < nframes; i++) {
+                outBuf.put(i, interleavedOutput.get(x));
+                x += channels;
+            }
+        }
+    }
+
+    private void processDouble(long time, int nframes) {
+        updateChannelState();
+        for (int channel = 0; channel < inputPortCount; channel++) {
+            FloatBuffer portBuf = portBuffers.getInputBuffer(channel);
+            DoubleBuffer inBuf = inputDoubles.get(channel);
+            for (int i = 0; i < nframes; i++) {
+                inBuf.put(i, portBuf.get(i));
+            }
+            inBuf.rewind();
+        }
+        for (int channel = 0; channel < outputDoubles.size(); channel++) {
+            outputDoubles.get(channel).rewind();
+        }
+        doubleClient.processDouble(time, inputDoubles, outputDoubles, nframes);
+        for (int channel = 0; channel < outputPortCount; channel++) {
+            FloatBuffer portBuf = portBuffers.getOutputBuffer(channel);
+            if (channelState.isOutputSilent(channel)) {
+                for (int i = 0; i < nframes; i++) {
+                    portBuf.put(i, 0);
+                }
             } else {
-                try {
-                    processBuffers(nframes);
-                    return true;
-                } catch (Exception ex) {
-                    shutdown();
-                    return false;
+                DoubleBuffer outBuf = outputDoubles.get(channel);
+                for (int i = 0; i < nframes; i++) {
+                    portBuf.put(i, (float) outBuf.get(i));
                 }
+            }
+        }
+    }
+
+    private void processRouted(long time, int nframes) {
+        for (int i = 0; i < inputPortCount; i++) {
+            inputPortBuffers[i] = portBuffers.getInputBuffer(i);
+        }
+        for (int channel = 0; channel < inputBuffers.size(); channel++) {
+            FloatBuffer inBuf = inputBuffers.get(channel);
+            for (int i = 0; i < nframes; i++) {
+                inBuf.put(i, 0);
+            }
+        }
+        for (int r = 0; r < inputRouteSources.length; r++) {
+            FloatBuffer portBuf = inputPortBuffers[inputRouteSources[r]];
+            FloatBuffer inBuf = inputBuffers.get(inputRouteTargets[r]);
+            float gain = inputRouteGains[r];
+            for (int i = 0; i < nframes; i++) {
+                inBuf.put(i, inBuf.get(i) + portBuf.get(i) * gain);
+            }
+        }
+        for (int channel = 0; channel < inputBuffers.size(); channel++) {
+            inputBuffers.get(channel).rewind();
+        }
+        for (int channel = 0; channel < outputBuffers.size(); channel++) {
+            outputBuffers.get(channel).rewind();
+        }
+        updateChannelState();
+        swapper.process(time, inputBuffers, outputBuffers, nframes);
+        for (int i = 0; i < outputPortCount; i++) {
+            FloatBuffer portBuf = portBuffers.getOutputBuffer(i);
+            for (int k = 0; k < nframes; k++) {
+                portBuf.put(k, 0);
+            }
+            outputPortBuffers[i] = portBuf;
+        }
+        for (int r = 0; r < outputRouteSources.length; r++) {
+            if (channelState.isOutputSilent(outputRouteSources[r])) {
+                continue;
+            }
+            FloatBuffer outBuf = outputBuffers.get(outputRouteSources[r]);
+            FloatBuffer portBuf = outputPortBuffers[outputRouteTargets[r]];
+            float gain = outputRouteGains[r];
+            for (int i = 0; i < nframes; i++) {
+                portBuf.put(i, portBuf.get(i) + outBuf.get(i) * gain);
+            }
+        }
+    }
 
+    private void silenceOutput(int nframes) {
+        for (int i = 0; i < outputPortCount; i++) {
+            FloatBuffer buffer = portBuffers.getOutputBuffer(i);
+            for (int j = 0; j < nframes; j++) {
+                buffer.put(j, 0);
             }
         }
     }
 
+    /**
+     * Run one cycle of the client against the current port buffers.
+     *
+     * @param nframes number of frames
+     * @return false if the server is no longer active
+     */
+    boolean processCycle(int nframes) {
+        if (state.get() != State.Active) {
+            return false;
+        } else {
+            try {
+                long now = System.nanoTime();
+                Watchdog wd = watchdog;
+                if (wd != null && wd.isBypassed()) {
+                    clock.update(now);
+                    silenceOutput(nframes);
+                } else {
+                    processBuffers(clock.update(now), nframes);
+                    long elapsed = System.nanoTime() - now;
+                    load.update(elapsed, nframes);
+                    // a stalled callback cannot be covered - JACK will
+                    // evict the client - but repeated overruns can be
+                    // bypassed before that happens
+                    if (wd != null && elapsed > deadlineNanos) {
+                        wd.miss();
+                    }
+                }
+                return true;
+            } catch (Exception ex) {
+                shutdown();
+                return false;
+            }
+
+        }
+    }
+
+    private class Callback implements JackProcessCallback {
+
+        @Override
+        public boolean process(JackClient client, int nframes) {
+            return processCycle(nframes);
+        }
+    }
+
     private class ShutDownHook implements JackShutdownCallback {
 
         @Override
@@ -232,6 +601,66 @@ public class JackAudioServer implements AudioServer {
 
     }
 
+    /**
+     * Source of the port buffers for the current cycle. The cycle code only
+     * reaches the JACK ports through this, so that it can be driven without a
+     * JACK server.
+     */
+    interface PortBuffers {
+
+        FloatBuffer getInputBuffer(int port);
+
+        FloatBuffer getOutputBuffer(int port);
+
+    }
+
+    private static class JackPortBuffers implements PortBuffers {
+
+        private final JackPort[] inputs;
+        private final JackPort[] outputs;
+
+        private JackPortBuffers(JackPort[] inputs, JackPort[] outputs) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+        }
+
+        @Override
+        public FloatBuffer getInputBuffer(int port) {
+            return inputs[port].getFloatBuffer();
+        }
+
+        @Override
+        public FloatBuffer getOutputBuffer(int port) {
+            return outputs[port].getFloatBuffer();
+        }
+
+    }
+
+    /**
+     * Replace the AudioClient while the server is running, without closing
+     * the JACK client or its ports. The new client is configured on a
+     * background thread with the current AudioConfiguration, and installed at
+     * the start of a cycle, optionally crossfading from the old client. The
+     * old client is shut down once it is no longer used. See
+     * {@link SwappableAudioClient}.
+     *
+     * Swapping is not available where the server drives the client as an
+     * InterleavedAudioClient or DoubleAudioClient.
+     *
+     * @param client new client
+     * @param fadeFrames length of crossfade in frames, or zero
+     * @return future completing when the old client has been shut down
+     * @throws IllegalStateException if the server is not running or swapping
+     * is not available
+     */
+    public CompletableFuture<Void> swapClient(AudioClient client, int fadeFrames) {
+        SwappableAudioClient s = swapper;
+        if (state.get() != State.Active || s == null) {
+            throw new IllegalStateException();
+        }
+        return s.swap(client, fadeFrames);
+    }
+
     @Override
     public AudioConfiguration getAudioContext() {
         return context;
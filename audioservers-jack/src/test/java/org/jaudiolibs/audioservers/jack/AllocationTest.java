@@ -0,0 +1,194 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License,
+ * or (at your option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ * 
+ */
+package org.jaudiolibs.audioservers.jack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.DoubleAudioClient;
+import org.jaudiolibs.audioservers.ext.ChannelRouting;
+import org.jaudiolibs.audioservers.ext.ClientID;
+import org.jaudiolibs.audioservers.ext.Connections;
+import org.jaudiolibs.audioservers.util.AllocationProbe;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the JackAudioServer cycle code against direct port buffers, without a
+ * JACK server, and checks that steady-state cycles do not allocate. Every
+ * cycle is measured from the first, so the measuring code is already compiled
+ * when warmup ends, and every cycle after warmup must allocate nothing.
+ */
+public class AllocationTest {
+
+    private final static int SAMPLE_RATE = 48000;
+    private final static int BUFFER_SIZE = 256;
+    private final static int WARMUP_CYCLES = 20000;
+    private final static int CYCLES = 5000;
+
+    @Before
+    public void checkSupported() {
+        assumeTrue(AllocationProbe.isSupported());
+    }
+
+    @Test(timeout = 60000)
+    public void plain() throws Exception {
+        run(new SineClient(), 2, 2);
+    }
+
+    @Test(timeout = 60000)
+    public void routed() throws Exception {
+        ChannelRouting routing = new ChannelRouting(2, 4)
+                .routeInput(1, 0, 1)
+                .routeOutput(0, 2, 0.5f)
+                .routeOutput(1, 3, 1);
+        run(new SineClient(), 2, 4, routing);
+    }
+
+    @Test(timeout = 60000)
+    public void doubled() throws Exception {
+        run(new SineDoubleClient(), 2, 2);
+    }
+
+    private void run(AudioClient client, int inputPorts, int outputPorts,
+            Object... exts) throws Exception {
+        AudioConfiguration config = new AudioConfiguration(SAMPLE_RATE, 2, 2,
+                BUFFER_SIZE, exts);
+        // monitor can only wrap a float client
+        AllocationProbe.Monitor monitor = client instanceof DoubleAudioClient
+                ? null : AllocationProbe.monitor(client, WARMUP_CYCLES);
+        JackAudioServer server = new JackAudioServer(new ClientID("test"),
+                Connections.NONE, config, monitor == null ? client : monitor);
+        server.startWithoutJack(new Ports(inputPorts, outputPorts),
+                SAMPLE_RATE, BUFFER_SIZE);
+        AllocationProbe probe = new AllocationProbe();
+        long[] bytes = new long[WARMUP_CYCLES + CYCLES];
+        boolean ok = true;
+        for (int i = 0; i < bytes.length; i++) {
+            probe.start();
+            ok &= server.processCycle(BUFFER_SIZE);
+            bytes[i] = probe.stop();
+        }
+        server.shutdown();
+        assertTrue("server failed", ok);
+        long max = 0;
+        for (int i = WARMUP_CYCLES; i < bytes.length; i++) {
+            max = Math.max(max, bytes[i]);
+        }
+        assertEquals("bytes allocated per cycle", 0, max);
+        if (monitor != null) {
+            assertTrue(monitor.getMeasuredCycles() > 0);
+            assertEquals("bytes allocated around client", 0,
+                    monitor.getMaxServerAllocatedBytes());
+            assertEquals(0, monitor.getMaxClientAllocatedBytes());
+        }
+    }
+
+    /**
+     * Native order direct buffers, like the port buffers JACK provides.
+     */
+    private static class Ports implements JackAudioServer.PortBuffers {
+
+        private final FloatBuffer[] inputs;
+        private final FloatBuffer[] outputs;
+
+        private Ports(int inputPorts, int outputPorts) {
+            inputs = new FloatBuffer[inputPorts];
+            for (int i = 0; i < inputPorts; i++) {
+                inputs[i] = createBuffer();
+            }
+            outputs = new FloatBuffer[outputPorts];
+            for (int i = 0; i < outputPorts; i++) {
+                outputs[i] = createBuffer();
+            }
+        }
+
+        private static FloatBuffer createBuffer() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+
+        @Override
+        public FloatBuffer getInputBuffer(int port) {
+            return inputs[port];
+        }
+
+        @Override
+        public FloatBuffer getOutputBuffer(int port) {
+            return outputs[port];
+        }
+
+    }
+
+    private static class SineClient implements AudioClient {
+
+        private double phase;
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            for (int i = 0; i < nframes; i++) {
+                float value = (float) (0.5 * Math.sin(phase));
+                phase += 0.01;
+                for (int ch = 0; ch < outputs.size(); ch++) {
+                    outputs.get(ch).put(i, value + inputs.get(ch).get(i));
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    private static class SineDoubleClient extends SineClient implements DoubleAudioClient {
+
+        private double phase;
+
+        @Override
+        public boolean processDouble(long time, List<DoubleBuffer> inputs,
+                List<DoubleBuffer> outputs, int nframes) {
+            for (int i = 0; i < nframes; i++) {
+                double value = 0.5 * Math.sin(phase);
+                phase += 0.01;
+                for (int ch = 0; ch < outputs.size(); ch++) {
+                    outputs.get(ch).put(i, value + inputs.get(ch).get(i));
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
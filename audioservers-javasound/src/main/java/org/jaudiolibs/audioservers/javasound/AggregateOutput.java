@@ -0,0 +1,149 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * A secondary output device of a {@link JSAggregate}. Client output channels
+ * are interleaved, passed through a drift compensated Resampler, and written
+ * to the line without blocking, keeping the line's buffer at a target fill
+ * level of a few cycles.
+ */
+class AggregateOutput {
+
+    private final static Logger LOG = Logger.getLogger(AggregateOutput.class.getName());
+
+    private final static double TARGET_CYCLES = 3;
+    private final static double BANDWIDTH = 0.05;
+
+    private final SourceDataLine line;
+    private final int offset;
+    private final int channels;
+    private final int buffersize;
+    private final int frameSize;
+    private final int target;
+    private final AudioFloatConverter converter;
+    private final Resampler resampler;
+    private final DriftCompensator compensator;
+    private final float[] interleaved;
+    private final float[] deviceBuffer;
+    private final byte[] byteBuffer;
+
+    private long droppedBytes;
+
+    /**
+     * Create an AggregateOutput for an open line.
+     *
+     * @param line open output line
+     * @param offset index of the first client output channel
+     * @param buffersize client frames per cycle
+     * @param srate client sample rate
+     * @param quality resampler quality
+     */
+    AggregateOutput(SourceDataLine line, int offset, int buffersize,
+            float srate, JSResamplerQuality quality) {
+        AudioFormat format = line.getFormat();
+        this.line = line;
+        this.offset = offset;
+        this.channels = format.getChannels();
+        this.buffersize = buffersize;
+        this.frameSize = format.getFrameSize();
+        float deviceRate = format.getSampleRate();
+        double cycleFrames = buffersize * deviceRate / srate;
+        target = (int) (cycleFrames * TARGET_CYCLES);
+        converter = AudioFloatConverter.getConverter(format);
+        resampler = new Resampler(channels, srate, deviceRate, buffersize, quality);
+        compensator = new DriftCompensator(resampler, cycleFrames, target,
+                buffersize / srate, BANDWIDTH);
+        interleaved = new float[buffersize * channels];
+        int frames = (int) Math.ceil(cycleFrames
+                * (1 + DriftCompensator.MAX_CORRECTION)) + 4;
+        deviceBuffer = new float[frames * channels];
+        byteBuffer = new byte[Math.max(frames, target) * frameSize];
+    }
+
+    /**
+     * Fill the line to the target level with silence and start it.
+     */
+    void start() {
+        converter.toByteArray(new float[target * channels], byteBuffer);
+        line.write(byteBuffer, 0, Math.min(target * frameSize, line.available()));
+        line.start();
+    }
+
+    /**
+     * Write the next cycle of client output.
+     *
+     * @param outputs client output buffers
+     */
+    void write(List<FloatBuffer> outputs) {
+        for (int channel = 0; channel < channels; channel++) {
+            FloatBuffer outBuf = outputs.get(offset + channel);
+            float out;
+            for (int i = 0, x = channel; i < buffersize; i++) {
+                out = outBuf.get(i);
+                interleaved[x] = out < -1 ? -1 : out > 1 ? 1 : out;
+                x += channels;
+            }
+            outBuf.rewind();
+        }
+        int space = line.available();
+        compensator.update((line.getBufferSize() - space) / frameSize);
+        resampler.write(interleaved, 0, buffersize);
+        int frames = resampler.read(deviceBuffer, 0, deviceBuffer.length / channels);
+        converter.toByteArray(deviceBuffer, frames * channels, byteBuffer);
+        int bytes = frames * frameSize;
+        if (bytes > space) {
+            droppedBytes += bytes - space;
+            bytes = space - (space % frameSize);
+        }
+        line.write(byteBuffer, 0, bytes);
+    }
+
+    void close() {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Closing aggregate output {0}\nDrift : {1} ppm\nDropped frames : {2}",
+                    new Object[]{line.getLineInfo(), compensator.getDrift() * 1e6,
+                        droppedBytes / frameSize});
+        }
+        line.close();
+    }
+
+}
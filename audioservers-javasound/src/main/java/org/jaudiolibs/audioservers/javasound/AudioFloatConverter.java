@@ -161,6 +161,33 @@ abstract class AudioFloatConverter {
             return ret;
         }
 
+        public byte[] toByteArray(double[] in_buff, int in_offset, int in_len,
+                byte[] out_buff, int out_offset) {
+            byte[] ret = converter.toByteArray(in_buff, in_offset, in_len,
+                    out_buff, out_offset);
+
+            int out_offset_end = in_len * stepsize;
+            for (int i = out_offset + offset; i < out_offset_end; i += stepsize) {
+                out_buff[i] = (byte) (out_buff[i] & mask);
+            }
+
+            return ret;
+        }
+
+        public double[] toDoubleArray(byte[] in_buff, int in_offset,
+                double[] out_buff, int out_offset, int out_len) {
+            if (mask_buffer == null || mask_buffer.length < in_buff.length)
+                mask_buffer = new byte[in_buff.length];
+            System.arraycopy(in_buff, 0, mask_buffer, 0, in_buff.length);
+            int in_offset_end = out_len * stepsize;
+            for (int i = in_offset + offset; i < in_offset_end; i += stepsize) {
+                mask_buffer[i] = (byte) (mask_buffer[i] & mask);
+            }
+            double[] ret = converter.toDoubleArray(mask_buffer, in_offset,
+                    out_buff, out_offset, out_len);
+            return ret;
+        }
+
     }
 
     /***************************************************************************
@@ -219,6 +246,36 @@ abstract class AudioFloatConverter {
             bytebuffer.get(out_buff, out_offset, out_len);
             return out_buff;
         }
+
+        public double[] toDoubleArray(byte[] in_buff, int in_offset,
+                double[] out_buff, int out_offset, int out_len) {
+            int in_len = out_len * 8;
+            if (bytebuffer == null || bytebuffer.capacity() < in_len) {
+                bytebuffer = ByteBuffer.allocate(in_len).order(
+                        ByteOrder.LITTLE_ENDIAN);
+                floatbuffer = bytebuffer.asDoubleBuffer();
+            }
+            bytebuffer.position(0);
+            floatbuffer.position(0);
+            bytebuffer.put(in_buff, in_offset, in_len);
+            floatbuffer.get(out_buff, out_offset, out_len);
+            return out_buff;
+        }
+
+        public byte[] toByteArray(double[] in_buff, int in_offset, int in_len,
+                byte[] out_buff, int out_offset) {
+            int out_len = in_len * 8;
+            if (bytebuffer == null || bytebuffer.capacity() < out_len) {
+                bytebuffer = ByteBuffer.allocate(out_len).order(
+                        ByteOrder.LITTLE_ENDIAN);
+                floatbuffer = bytebuffer.asDoubleBuffer();
+            }
+            floatbuffer.position(0);
+            bytebuffer.position(0);
+            floatbuffer.put(in_buff, in_offset, in_len);
+            bytebuffer.get(out_buff, out_offset, out_len);
+            return out_buff;
+        }
     }
 
     // PCM 64 bit float, big-endian
@@ -271,6 +328,36 @@ abstract class AudioFloatConverter {
             bytebuffer.get(out_buff, out_offset, out_len);
             return out_buff;
         }
+
+        public double[] toDoubleArray(byte[] in_buff, int in_offset,
+                double[] out_buff, int out_offset, int out_len) {
+            int in_len = out_len * 8;
+            if (bytebuffer == null || bytebuffer.capacity() < in_len) {
+                bytebuffer = ByteBuffer.allocate(in_len).order(
+                        ByteOrder.BIG_ENDIAN);
+                floatbuffer = bytebuffer.asDoubleBuffer();
+            }
+            bytebuffer.position(0);
+            floatbuffer.position(0);
+            bytebuffer.put(in_buff, in_offset, in_len);
+            floatbuffer.get(out_buff, out_offset, out_len);
+            return out_buff;
+        }
+
+        public byte[] toByteArray(double[] in_buff, int in_offset, int in_len,
+                byte[] out_buff, int out_offset) {
+            int out_len = in_len * 8;
+            if (bytebuffer == null || bytebuffer.capacity() < out_len) {
+                bytebuffer = ByteBuffer.allocate(out_len).order(
+                        ByteOrder.BIG_ENDIAN);
+                floatbuffer = bytebuffer.asDoubleBuffer();
+            }
+            floatbuffer.position(0);
+            bytebuffer.position(0);
+            floatbuffer.put(in_buff, in_offset, in_len);
+            bytebuffer.get(out_buff, out_offset, out_len);
+            return out_buff;
+        }
     }
 
     /***************************************************************************
@@ -677,6 +764,33 @@ abstract class AudioFloatConverter {
             }
             return out_buff;
         }
+
+        public double[] toDoubleArray(byte[] in_buff, int in_offset,
+                double[] out_buff, int out_offset, int out_len) {
+            int ix = in_offset;
+            int ox = out_offset;
+            for (int i = 0; i < out_len; i++) {
+                int x = (in_buff[ix++] & 0xFF) | ((in_buff[ix++] & 0xFF) << 8) |
+                        ((in_buff[ix++] & 0xFF) << 16) |
+                        ((in_buff[ix++] & 0xFF) << 24);
+                out_buff[ox++] = x * (1.0 / 0x7FFFFFFF);
+            }
+            return out_buff;
+        }
+
+        public byte[] toByteArray(double[] in_buff, int in_offset, int in_len,
+                byte[] out_buff, int out_offset) {
+            int ix = in_offset;
+            int ox = out_offset;
+            for (int i = 0; i < in_len; i++) {
+                int x = (int) (in_buff[ix++] * 0x7FFFFFFF);
+                out_buff[ox++] = (byte) x;
+                out_buff[ox++] = (byte) (x >>> 8);
+                out_buff[ox++] = (byte) (x >>> 16);
+                out_buff[ox++] = (byte) (x >>> 24);
+            }
+            return out_buff;
+        }
     }
 
     // PCM 32 bit, signed, big-endian
@@ -707,6 +821,33 @@ abstract class AudioFloatConverter {
             }
             return out_buff;
         }
+
+        public double[] toDoubleArray(byte[] in_buff, int in_offset,
+                double[] out_buff, int out_offset, int out_len) {
+            int ix = in_offset;
+            int ox = out_offset;
+            for (int i = 0; i < out_len; i++) {
+                int x = ((in_buff[ix++] & 0xFF) << 24) |
+                        ((in_buff[ix++] & 0xFF) << 16) |
+                        ((in_buff[ix++] & 0xFF) << 8) | (in_buff[ix++] & 0xFF);
+                out_buff[ox++] = x * (1.0 / 0x7FFFFFFF);
+            }
+            return out_buff;
+        }
+
+        public byte[] toByteArray(double[] in_buff, int in_offset, int in_len,
+                byte[] out_buff, int out_offset) {
+            int ix = in_offset;
+            int ox = out_offset;
+            for (int i = 0; i < in_len; i++) {
+                int x = (int) (in_buff[ix++] * 0x7FFFFFFF);
+                out_buff[ox++] = (byte) (x >>> 24);
+                out_buff[ox++] = (byte) (x >>> 16);
+                out_buff[ox++] = (byte) (x >>> 8);
+                out_buff[ox++] = (byte) x;
+            }
+            return out_buff;
+        }
     }
 
     // PCM 32 bit, unsigned, little-endian
@@ -1043,6 +1184,8 @@ abstract class AudioFloatConverter {
         if ((format.getEncoding().equals(Encoding.PCM_SIGNED) ||
                 format.getEncoding().equals(Encoding.PCM_UNSIGNED)) &&
                 (format.getSampleSizeInBits() % 8 != 0)) {
+            if (conv != null)
+                conv.format = format;
             conv = new AudioFloatLSBFilter(conv, format);
         }
 
@@ -1098,4 +1241,57 @@ abstract class AudioFloatConverter {
     public byte[] toByteArray(float[] in_buff, byte[] out_buff) {
         return toByteArray(in_buff, 0, in_buff.length, out_buff, 0);
     }
+
+    /*
+     * Double precision conversion. Formats of 24 bits or less are exactly
+     * representable as float, so by default samples are converted through
+     * a float scratch buffer. 32 bit integer and 64 bit float formats
+     * override these methods to keep full precision.
+     */
+
+    private static final int DOUBLE_SCRATCH_SIZE = 256;
+
+    private float[] double_scratch;
+
+    public double[] toDoubleArray(byte[] in_buff, int in_offset,
+            double[] out_buff, int out_offset, int out_len) {
+        if (double_scratch == null)
+            double_scratch = new float[DOUBLE_SCRATCH_SIZE];
+        int sample_size = (format.getSampleSizeInBits() + 7) / 8;
+        while (out_len > 0) {
+            int len = Math.min(out_len, DOUBLE_SCRATCH_SIZE);
+            toFloatArray(in_buff, in_offset, double_scratch, 0, len);
+            for (int i = 0; i < len; i++) {
+                out_buff[out_offset++] = double_scratch[i];
+            }
+            in_offset += len * sample_size;
+            out_len -= len;
+        }
+        return out_buff;
+    }
+
+    public double[] toDoubleArray(byte[] in_buff, double[] out_buff) {
+        return toDoubleArray(in_buff, 0, out_buff, 0, out_buff.length);
+    }
+
+    public byte[] toByteArray(double[] in_buff, int in_offset, int in_len,
+            byte[] out_buff, int out_offset) {
+        if (double_scratch == null)
+            double_scratch = new float[DOUBLE_SCRATCH_SIZE];
+        int sample_size = (format.getSampleSizeInBits() + 7) / 8;
+        while (in_len > 0) {
+            int len = Math.min(in_len, DOUBLE_SCRATCH_SIZE);
+            for (int i = 0; i < len; i++) {
+                double_scratch[i] = (float) in_buff[in_offset++];
+            }
+            toByteArray(double_scratch, 0, len, out_buff, out_offset);
+            out_offset += len * sample_size;
+            in_len -= len;
+        }
+        return out_buff;
+    }
+
+    public byte[] toByteArray(double[] in_buff, byte[] out_buff) {
+        return toByteArray(in_buff, 0, in_buff.length, out_buff, 0);
+    }
 }
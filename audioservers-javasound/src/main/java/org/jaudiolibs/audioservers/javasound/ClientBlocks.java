@@ -0,0 +1,161 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+
+/**
+ * Runs an AudioClient several times per server buffer at a smaller fixed block
+ * size. Each set of server buffers is registered up front, and the client is
+ * passed views onto consecutive regions of those buffers so that no copying is
+ * required. Views onto heap buffers share the backing array, with a non-zero
+ * arrayOffset() for all but the first block.
+ */
+class ClientBlocks implements AudioClient {
+
+    private final AudioClient client;
+    private final int blockSize;
+    private final int blocks;
+    private final double blockNanos;
+    private final List<BufferSet> sets;
+    private final ChannelState channelState;
+
+    ClientBlocks(AudioClient client, int blockSize, int bufferSize, float sampleRate,
+            ChannelState channelState) {
+        this.client = client;
+        this.channelState = channelState;
+        this.blockSize = blockSize;
+        this.blocks = bufferSize / blockSize;
+        this.blockNanos = 1e9 * blockSize / sampleRate;
+        this.sets = new ArrayList<>(2);
+    }
+
+    /**
+     * Register a set of server buffers that may be passed to process().
+     */
+    void register(List<FloatBuffer> inputs, List<FloatBuffer> outputs) {
+        sets.add(new BufferSet(inputs, outputs));
+    }
+
+    @Override
+    public void configure(AudioConfiguration context) throws Exception {
+        client.configure(context);
+    }
+
+    @Override
+    public boolean process(long time, List<FloatBuffer> inputs,
+            List<FloatBuffer> outputs, int nframes) {
+        BufferSet set = find(inputs, outputs);
+        boolean silent = channelState != null;
+        for (int block = 0; block < blocks; block++) {
+            List<FloatBuffer> ins = set.inputs.get(block);
+            List<FloatBuffer> outs = set.outputs.get(block);
+            if (!client.process(time + (long) (block * blockNanos),
+                    ins, outs, blockSize)) {
+                return false;
+            }
+            if (channelState != null) {
+                // flags only cover a part of the server buffer
+                silent &= channelState.isAllOutputsSilent();
+                channelState.resolveOutputs(outs, blockSize);
+            }
+            rewind(ins);
+            rewind(outs);
+        }
+        if (silent) {
+            channelState.setAllOutputsSilent();
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        client.shutdown();
+    }
+
+    private BufferSet find(List<FloatBuffer> inputs, List<FloatBuffer> outputs) {
+        for (int i = 0; i < sets.size(); i++) {
+            BufferSet set = sets.get(i);
+            if (set.serverInputs == inputs && set.serverOutputs == outputs) {
+                return set;
+            }
+        }
+        throw new IllegalStateException("Unregistered buffers");
+    }
+
+    private void rewind(List<FloatBuffer> buffers) {
+        for (int i = 0; i < buffers.size(); i++) {
+            buffers.get(i).rewind();
+        }
+    }
+
+    private class BufferSet {
+
+        private final List<FloatBuffer> serverInputs;
+        private final List<FloatBuffer> serverOutputs;
+        private final List<List<FloatBuffer>> inputs;
+        private final List<List<FloatBuffer>> outputs;
+
+        private BufferSet(List<FloatBuffer> serverInputs,
+                List<FloatBuffer> serverOutputs) {
+            this.serverInputs = serverInputs;
+            this.serverOutputs = serverOutputs;
+            inputs = new ArrayList<>(blocks);
+            outputs = new ArrayList<>(blocks);
+            for (int block = 0; block < blocks; block++) {
+                inputs.add(views(serverInputs, block));
+                outputs.add(views(serverOutputs, block));
+            }
+        }
+
+        private List<FloatBuffer> views(List<FloatBuffer> buffers, int block) {
+            List<FloatBuffer> views = new ArrayList<>(buffers.size());
+            for (FloatBuffer buffer : buffers) {
+                FloatBuffer view = buffer.duplicate();
+                view.position(block * blockSize);
+                view.limit(block * blockSize + blockSize);
+                views.add(view.slice());
+            }
+            return Collections.unmodifiableList(views);
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jaudiolibs.audioservers.AudioClient;
+
+/**
+ * Runs an AudioClient one buffer ahead of the device thread on a worker
+ * thread, using two sets of client buffers. Each call to process() hands the
+ * current input set to the worker and makes the previously processed output
+ * set available for writing to the device.
+ */
+class ClientPipeline {
+
+    private final static Logger LOG = Logger.getLogger(ClientPipeline.class.getName());
+
+    private final static int SPIN_COUNT = 1000;
+
+    private final AudioClient client;
+    private final List<List<FloatBuffer>> inputs;
+    private final List<List<FloatBuffer>> outputs;
+    private final AtomicLong requested;
+    private final AtomicLong completed;
+    private final long idleNanos;
+
+    private volatile boolean running;
+    private volatile boolean ok;
+    private volatile long processNanos;
+    private Thread worker;
+    private int current;
+    private int submitted;
+    private long time;
+    private int nframes;
+
+    ClientPipeline(AudioClient client,
+            List<FloatBuffer> inputsA, List<FloatBuffer> outputsA,
+            List<FloatBuffer> inputsB, List<FloatBuffer> outputsB,
+            long bufferNanos) {
+        this.client = client;
+        inputs = new ArrayList<>(2);
+        inputs.add(inputsA);
+        inputs.add(inputsB);
+        outputs = new ArrayList<>(2);
+        outputs.add(outputsA);
+        outputs.add(outputsB);
+        requested = new AtomicLong();
+        completed = new AtomicLong();
+        idleNanos = bufferNanos * 2;
+    }
+
+    void start() {
+        ok = true;
+        running = true;
+        worker = new Thread(this::run, "JSAudioServer Pipeline");
+        worker.setPriority(Thread.MAX_PRIORITY);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    void stop() {
+        running = false;
+        Thread w = worker;
+        worker = null;
+        if (w != null) {
+            try {
+                w.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Input buffers to fill for the next call to process().
+     */
+    List<FloatBuffer> getInputBuffers() {
+        return inputs.get(current);
+    }
+
+    /**
+     * Output buffers processed in the previous cycle, to be written to the
+     * device.
+     */
+    List<FloatBuffer> getOutputBuffers() {
+        return outputs.get(current);
+    }
+
+    /**
+     * Time the worker spent in the client's process() method for the
+     * previous cycle.
+     */
+    long getProcessNanos() {
+        return processNanos;
+    }
+
+    boolean process(long time, int nframes) {
+        while (completed.get() != requested.get()) {
+            Thread.yield();
+        }
+        if (!ok) {
+            return false;
+        }
+        this.time = time;
+        this.nframes = nframes;
+        submitted = current;
+        requested.incrementAndGet();
+        current ^= 1;
+        return true;
+    }
+
+    private void run() {
+        long idleStart = System.nanoTime();
+        int spins = 0;
+        while (running) {
+            if (requested.get() != completed.get()) {
+                int set = submitted;
+                long start = System.nanoTime();
+                try {
+                    if (!client.process(time, inputs.get(set), outputs.get(set), nframes)) {
+                        ok = false;
+                    }
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE, "", ex);
+                    ok = false;
+                }
+                processNanos = System.nanoTime() - start;
+                completed.incrementAndGet();
+                spins = 0;
+                idleStart = System.nanoTime();
+            } else if (spins < SPIN_COUNT) {
+                spins++;
+            } else if (System.nanoTime() - idleStart < idleNanos) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(100000);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.SplitAudioClient;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+
+/**
+ * Runs a SplitAudioClient in variable sized blocks within each server buffer,
+ * at the frames requested by the client. Audio is copied between the server
+ * buffers and a set of client buffers, as views at arbitrary offsets could not
+ * be created without allocation.
+ */
+class ClientSplitter implements AudioClient {
+
+    private final SplitAudioClient client;
+    private final int maxBlockSize;
+    private final double frameNanos;
+    private final List<FloatBuffer> inputs;
+    private final List<FloatBuffer> outputs;
+    private final ChannelState channelState;
+
+    private long frame;
+
+    ClientSplitter(SplitAudioClient client, int maxBlockSize, float sampleRate,
+            List<FloatBuffer> inputs, List<FloatBuffer> outputs,
+            ChannelState channelState) {
+        this.client = client;
+        this.channelState = channelState;
+        this.maxBlockSize = maxBlockSize;
+        this.frameNanos = 1e9 / sampleRate;
+        this.inputs = inputs;
+        this.outputs = outputs;
+    }
+
+    @Override
+    public void configure(AudioConfiguration context) throws Exception {
+        client.configure(context);
+    }
+
+    @Override
+    public boolean process(long time, List<FloatBuffer> serverInputs,
+            List<FloatBuffer> serverOutputs, int nframes) {
+        int offset = 0;
+        boolean silent = channelState != null;
+        while (offset < nframes) {
+            int available = Math.min(nframes - offset, maxBlockSize);
+            int n = client.nextBlockSize(frame, available);
+            n = n < 1 ? 1 : n > available ? available : n;
+            for (int i = 0; i < inputs.size(); i++) {
+                FloatBuffer in = inputs.get(i);
+                copy(serverInputs.get(i), offset, in, 0, n);
+                in.limit(n);
+            }
+            for (int i = 0; i < outputs.size(); i++) {
+                outputs.get(i).limit(n);
+            }
+            boolean ok = client.process(time + (long) (offset * frameNanos),
+                    inputs, outputs, n);
+            if (channelState != null) {
+                // flags only cover a part of the server buffer
+                silent &= channelState.isAllOutputsSilent();
+                channelState.resolveOutputs(outputs, n);
+            }
+            for (int i = 0; i < inputs.size(); i++) {
+                inputs.get(i).clear();
+            }
+            for (int i = 0; i < outputs.size(); i++) {
+                FloatBuffer out = outputs.get(i);
+                out.clear();
+                copy(out, 0, serverOutputs.get(i), offset, n);
+            }
+            if (!ok) {
+                return false;
+            }
+            frame += n;
+            offset += n;
+        }
+        if (silent) {
+            channelState.setAllOutputsSilent();
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        client.shutdown();
+    }
+
+    private static void copy(FloatBuffer src, int srcPos,
+            FloatBuffer dst, int dstPos, int length) {
+        if (src.hasArray() && dst.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + srcPos,
+                    dst.array(), dst.arrayOffset() + dstPos, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst.put(dstPos + i, src.get(srcPos + i));
+            }
+        }
+    }
+
+}
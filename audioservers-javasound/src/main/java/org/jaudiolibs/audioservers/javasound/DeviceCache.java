@@ -0,0 +1,221 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import org.jaudiolibs.audioservers.ext.Device;
+
+/**
+ * Cache of JavaSound devices. Enumerating devices requires probing the formats
+ * of every line on every mixer, which can be slow on some systems. The first
+ * call to {@link #getDevices()} enumerates devices synchronously, probing
+ * mixers in parallel. Subsequent calls return the cached list, and trigger a
+ * refresh in the background if the cache is older than the refresh interval.
+ * A refresh only probes mixers that were not present in the previous list, so
+ * unchanged devices keep their identity. Mixers are matched to previous
+ * devices by Mixer.Info identity first, and otherwise by name, vendor,
+ * description and version - several identical mixers (eg. two of the same
+ * USB interface) are matched in order.
+ */
+class DeviceCache {
+
+    private final static Logger LOG = Logger.getLogger(DeviceCache.class.getName());
+
+    private final static long REFRESH_INTERVAL = 2000L * 1000000L;
+
+    private final AtomicBoolean refreshing;
+
+    private volatile Snapshot snapshot;
+
+    DeviceCache() {
+        refreshing = new AtomicBoolean();
+    }
+
+    /**
+     * Get the list of devices, enumerating synchronously only if no devices
+     * have been cached yet.
+     *
+     * @return unmodifiable list of devices
+     */
+    List<Device> getDevices() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = scan(null);
+                    snapshot = current;
+                }
+            }
+        } else if (System.nanoTime() - current.timestamp > REFRESH_INTERVAL) {
+            refreshAsync();
+        }
+        return current.devices;
+    }
+
+    private void refreshAsync() {
+        if (refreshing.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    synchronized (this) {
+                        snapshot = scan(snapshot);
+                    }
+                } catch (Exception ex) {
+                    LOG.log(Level.WARNING, "Error refreshing devices", ex);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    private static Snapshot scan(Snapshot previous) {
+        Mixer.Info[] infos = AudioSystem.getMixerInfo();
+        List<String> keys = new ArrayList<>(infos.length);
+        for (Mixer.Info info : infos) {
+            keys.add(key(info));
+        }
+        List<Mixer.Info> infoList = Collections.unmodifiableList(Arrays.asList(infos));
+        if (previous != null && previous.keys.equals(keys)) {
+            return new Snapshot(infoList, previous.keys, previous.devices);
+        }
+        Device[] devices = new Device[infos.length];
+        if (previous != null) {
+            match(previous, infos, keys, devices);
+        }
+        IntStream.range(0, infos.length)
+                .parallel()
+                .filter(i -> devices[i] == null)
+                .forEach(i -> devices[i] = probe(infos[i]));
+        List<Device> list = Collections.unmodifiableList(Arrays.asList(devices));
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Found devices {0}", list);
+        }
+        return new Snapshot(infoList, Collections.unmodifiableList(keys), list);
+    }
+
+    private static void match(Snapshot previous, Mixer.Info[] infos,
+            List<String> keys, Device[] devices) {
+        Map<Mixer.Info, Device> byInfo = new IdentityHashMap<>();
+        Map<String, Deque<Device>> byKey = new HashMap<>();
+        for (int i = 0; i < previous.devices.size(); i++) {
+            Device dev = previous.devices.get(i);
+            byInfo.put(previous.infos.get(i), dev);
+            byKey.computeIfAbsent(previous.keys.get(i), k -> new ArrayDeque<>())
+                    .add(dev);
+        }
+        for (int i = 0; i < infos.length; i++) {
+            Device dev = byInfo.remove(infos[i]);
+            if (dev != null) {
+                devices[i] = dev;
+                byKey.get(keys.get(i)).removeIf(d -> d == dev);
+            }
+        }
+        for (int i = 0; i < infos.length; i++) {
+            if (devices[i] == null) {
+                Deque<Device> candidates = byKey.get(keys.get(i));
+                if (candidates != null) {
+                    devices[i] = candidates.poll();
+                }
+            }
+        }
+    }
+
+    private static Device probe(Mixer.Info info) {
+        Mixer mixer = AudioSystem.getMixer(info);
+        int ins = getMaximumChannels(mixer, true);
+        int outs = getMaximumChannels(mixer, false);
+        // @TODO what about port mixers?
+        return new JSDevice(mixer, ins, outs);
+    }
+
+    private static int getMaximumChannels(Mixer mixer, boolean input) {
+        int max = 0;
+        Line.Info[] lines = input ? mixer.getTargetLineInfo() : mixer.getSourceLineInfo();
+        for (Line.Info line : lines) {
+            if (line instanceof DataLine.Info) {
+                AudioFormat[] formats = ((DataLine.Info) line).getFormats();
+                for (AudioFormat format : formats) {
+                    int channels = format.getChannels();
+                    if (channels == AudioSystem.NOT_SPECIFIED) {
+                        max = 32;
+                    } else if (channels > max) {
+                        max = channels;
+                    }
+                }
+            }
+        }
+        return max;
+    }
+
+    static String key(Mixer.Info info) {
+        return info.getName() + '\u0000' + info.getVendor() + '\u0000'
+                + info.getDescription() + '\u0000' + info.getVersion();
+    }
+
+    private static class Snapshot {
+
+        private final List<Mixer.Info> infos;
+        private final List<String> keys;
+        private final List<Device> devices;
+        private final long timestamp;
+
+        private Snapshot(List<Mixer.Info> infos, List<String> keys, List<Device> devices) {
+            this.infos = infos;
+            this.keys = keys;
+            this.devices = devices;
+            this.timestamp = System.nanoTime();
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+/**
+ * Steers the ratio of a Resampler so that the fill level of a device buffer
+ * stays at a target, compensating for drift between the device clock and the
+ * master clock.
+ *
+ * The fill level is smoothed by a one pole filter to remove the jitter of
+ * device period sized transfers, then fed to a critically damped second order
+ * loop, as in AudioClock. The integrator of the loop tracks the rate
+ * difference between the clocks, and the proportional term pulls the fill
+ * level back to the target. Input and output lines use the same sign - a
+ * fill level above the target means input frames should be consumed faster.
+ */
+class DriftCompensator {
+
+    private final static double SMOOTHING_TIME = 0.5;
+    final static double MAX_CORRECTION = 0.01;
+
+    private final Resampler resampler;
+    private final double nominalRatio;
+    private final double target;
+    private final double cycleFrames;
+    private final double alpha;
+    private final double b;
+    private final double c;
+
+    private boolean initialised;
+    private double fill;
+    private double drift;
+    private double correction;
+
+    /**
+     * Create a DriftCompensator.
+     *
+     * @param resampler resampler to steer
+     * @param cycleFrames device frames transferred per cycle
+     * @param target target fill level in device frames
+     * @param period cycle period in seconds
+     * @param bandwidth loop bandwidth in Hz
+     */
+    DriftCompensator(Resampler resampler, double cycleFrames, double target,
+            double period, double bandwidth) {
+        this.resampler = resampler;
+        this.nominalRatio = resampler.getRatio();
+        this.cycleFrames = cycleFrames;
+        this.target = target;
+        alpha = 1 - Math.exp(-period / SMOOTHING_TIME);
+        double o = 2 * Math.PI * bandwidth * period;
+        b = Math.sqrt(2) * o;
+        c = o * o;
+    }
+
+    /**
+     * Update the loop with the current fill level of the device buffer and
+     * adjust the resampler ratio.
+     *
+     * @param level current fill level in device frames
+     */
+    void update(double level) {
+        if (!initialised) {
+            fill = level;
+            initialised = true;
+        } else {
+            fill += alpha * (level - fill);
+        }
+        double e = (fill - target) / cycleFrames;
+        drift = clamp(drift + c * e);
+        correction = clamp(drift + b * e);
+        resampler.setRatio(nominalRatio * (1 + correction));
+    }
+
+    /**
+     * Restart the loop, keeping the current drift estimate.
+     */
+    void reset() {
+        initialised = false;
+    }
+
+    /**
+     * The estimated rate of the device clock relative to the master clock,
+     * positive if the device is running fast. A fast device needs a lower
+     * resampler ratio.
+     *
+     * @return drift estimate (eg. 1e-4 for 100ppm)
+     */
+    double getDrift() {
+        return -drift;
+    }
+
+    private static double clamp(double value) {
+        return value < -MAX_CORRECTION ? -MAX_CORRECTION
+                : value > MAX_CORRECTION ? MAX_CORRECTION : value;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jaudiolibs.audioservers.ext.Device;
+
+/**
+ * Extension for running several JavaSound output devices as one wide device.
+ * The output device found in the AudioConfiguration is the master, and its
+ * clock paces the server. The master device receives the first client output
+ * channels, and each device added here then receives the next block of
+ * channels, in the order added, through a resampler that is continually
+ * adjusted to follow drift between its clock and the master clock. The
+ * master's channel count is the client output count less
+ * {@link #getSecondaryChannelCount()}.
+ *
+ * Where the input device differs from the master output device, input is also
+ * drift compensated while this extension is in use.
+ *
+ * Instances are immutable - {@link #addOutput(Device, int)} returns a new
+ * instance.
+ */
+public final class JSAggregate {
+
+    private final List<Device> devices;
+    private final int[] channels;
+
+    /**
+     * Create an empty JSAggregate.
+     */
+    public JSAggregate() {
+        this(Collections.emptyList(), new int[0]);
+    }
+
+    private JSAggregate(List<Device> devices, int[] channels) {
+        this.devices = devices;
+        this.channels = channels;
+    }
+
+    /**
+     * Add a secondary output device.
+     *
+     * @param device output device (must be a JavaSound device)
+     * @param channelCount number of client output channels to pass to the
+     * device
+     * @return new JSAggregate
+     */
+    public JSAggregate addOutput(Device device, int channelCount) {
+        if (device == null) {
+            throw new NullPointerException();
+        }
+        if (channelCount < 1) {
+            throw new IllegalArgumentException();
+        }
+        List<Device> devs = new ArrayList<>(devices);
+        devs.add(device);
+        int[] chs = new int[channels.length + 1];
+        System.arraycopy(channels, 0, chs, 0, channels.length);
+        chs[channels.length] = channelCount;
+        return new JSAggregate(Collections.unmodifiableList(devs), chs);
+    }
+
+    /**
+     * The secondary output devices, in the order their channels follow the
+     * master device's channels.
+     *
+     * @return unmodifiable list of devices
+     */
+    public List<Device> getOutputDevices() {
+        return devices;
+    }
+
+    /**
+     * The number of client output channels passed to the secondary device at
+     * the given index.
+     *
+     * @param index device index
+     * @return channel count
+     */
+    public int getOutputChannelCount(int index) {
+        return channels[index];
+    }
+
+    /**
+     * The total number of client output channels passed to secondary devices.
+     *
+     * @return channel count
+     */
+    public int getSecondaryChannelCount() {
+        int count = 0;
+        for (int ch : channels) {
+            count += ch;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("JSAggregate [");
+        for (int i = 0; i < devices.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(devices.get(i).getName()).append(" (").append(channels[i]).append(')');
+        }
+        return sb.append(']').toString();
+    }
+
+}
@@ -33,10 +33,19 @@
  */
 package org.jaudiolibs.audioservers.javasound;
 
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
@@ -44,12 +53,26 @@ import java.util.logging.Logger;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
 import org.jaudiolibs.audioservers.AudioClient;
 import org.jaudiolibs.audioservers.AudioConfiguration;
 import org.jaudiolibs.audioservers.AudioServer;
+import org.jaudiolibs.audioservers.DoubleAudioClient;
+import org.jaudiolibs.audioservers.InterleavedAudioClient;
+import org.jaudiolibs.audioservers.SplitAudioClient;
+import org.jaudiolibs.audioservers.ext.AudioClock;
+import org.jaudiolibs.audioservers.ext.ChannelRouting;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+import org.jaudiolibs.audioservers.ext.ClientBlockSize;
+import org.jaudiolibs.audioservers.ext.Device;
+import org.jaudiolibs.audioservers.ext.Latency;
+import org.jaudiolibs.audioservers.ext.Pipelining;
+import org.jaudiolibs.audioservers.ext.ProcessingLoad;
+import org.jaudiolibs.audioservers.ext.Watchdog;
+import org.jaudiolibs.audioservers.util.SwappableAudioClient;
 
 /**
  * Implementation of an AudioServer using Javasound.
@@ -68,14 +91,31 @@ public class JSAudioServer implements AudioServer {
     private final static int lineBitSize = 16;
     private final static boolean signed = true;
     private final static boolean bigEndian = false;
+    private final static int BUFFER_ALIGNMENT = 64;
+    private final static float[] FALLBACK_RATES = {48000, 44100, 96000, 88200, 32000};
+    private final static int WARMUP_SETTLE_CYCLES = 500;
+    private final static long WARMUP_SETTLE_NANOS = 200_000_000;
     //
     private final AtomicReference<State> state;
-    private final AudioConfiguration context;
     private final Mixer inputMixer;
     private final Mixer outputMixer;
     private final AudioClient client;
     private final JSTimingMode mode;
-    
+    private final Pipelining pipelining;
+    private final JSBufferType bufferType;
+    private final JSResamplerQuality resamplerQuality;
+    private final ChannelRouting routing;
+    private final ClientBlockSize clientBlockSize;
+    private final JSAggregate aggregate;
+    private final JSWarmup warmup;
+    private final JSIdlePolicy idlePolicy;
+
+    private AudioConfiguration context;
+    private Path capabilityStore;
+    private int bufferSize;
+    private AudioClient processor;
+    private SwappableAudioClient swapper;
+    private boolean warmingUp;
     private TargetDataLine inputLine;
     private SourceDataLine outputLine;
     private byte[] inputByteBuffer;
@@ -85,7 +125,36 @@ public class JSAudioServer implements AudioServer {
     private List<FloatBuffer> inputBuffers;
     private List<FloatBuffer> outputBuffers;
     private AudioFloatConverter converter;
-    
+    private ClientPipeline pipeline;
+    private InterleavedAudioClient interleavedClient;
+    private FloatBuffer interleavedInput;
+    private FloatBuffer interleavedOutput;
+    private DoubleAudioClient doubleClient;
+    private double[] inputDoubleBuffer;
+    private double[] outputDoubleBuffer;
+    private List<DoubleBuffer> inputDoubles;
+    private List<DoubleBuffer> outputDoubles;
+    private ChannelState channelState;
+    private AudioClock clock;
+    private ProcessingLoad load;
+    private long idleFrames;
+    private Watchdog watchdog;
+    private OutputWatchdog outputWatchdog;
+    private int outputLength;
+    private ByteBuffer bufferSlab;
+    private Resampler inputResampler;
+    private Resampler outputResampler;
+    private float[] inputDeviceBuffer;
+    private float[] outputDeviceBuffer;
+    private DriftCompensator inputCompensator;
+    private AggregateOutput[] aggregateOutputs;
+    private int[] inputRouteStarts;
+    private int[] inputRouteSources;
+    private float[] inputRouteGains;
+    private int[] outputRouteSources;
+    private int[] outputRouteTargets;
+    private float[] outputRouteGains;
+
     JSAudioServer(Mixer inputMixer,
             Mixer outputMixer,
             JSTimingMode mode,
@@ -96,6 +165,16 @@ public class JSAudioServer implements AudioServer {
         this.context = context;
         this.mode = mode;
         this.client = client;
+        Pipelining p = context.find(Pipelining.class);
+        this.pipelining = p == null ? Pipelining.NONE : p;
+        JSBufferType type = context.find(JSBufferType.class);
+        this.bufferType = type == null ? JSBufferType.Heap : type;
+        this.resamplerQuality = context.find(JSResamplerQuality.class);
+        this.routing = context.find(ChannelRouting.class);
+        this.clientBlockSize = context.find(ClientBlockSize.class);
+        this.aggregate = context.find(JSAggregate.class);
+        this.warmup = context.find(JSWarmup.class);
+        this.idlePolicy = context.find(JSIdlePolicy.class);
         state = new AtomicReference<>(State.New);
     }
 
@@ -106,21 +185,45 @@ public class JSAudioServer implements AudioServer {
         }
         try {
             initialise();
-            client.configure(context);
+            activeClient().configure(context);
         } catch (Exception ex) {
             state.set(State.Terminated);
             closeAll();
-            client.shutdown();
+            activeClient().shutdown();
             throw ex;
         }
         if (state.compareAndSet(State.Initialising, State.Active)) {
             runImpl();
         }
         closeAll();
-        client.shutdown();
+        activeClient().shutdown();
         state.set(State.Terminated);
     }
 
+    /**
+     * Replace the AudioClient while the server is running, without closing
+     * the device lines. The new client is configured on a background thread
+     * with the current AudioConfiguration, and installed at the start of a
+     * cycle, optionally crossfading from the old client. The old client is
+     * shut down once it is no longer used. See {@link SwappableAudioClient}.
+     *
+     * Swapping is not available where the server drives the client as an
+     * InterleavedAudioClient, SplitAudioClient or DoubleAudioClient.
+     *
+     * @param client new client
+     * @param fadeFrames length of crossfade in frames, or zero
+     * @return future completing when the old client has been shut down
+     * @throws IllegalStateException if the server is not running or swapping
+     * is not available
+     */
+    public CompletableFuture<Void> swapClient(AudioClient client, int fadeFrames) {
+        SwappableAudioClient s = swapper;
+        if (state.get() != State.Active || s == null) {
+            throw new IllegalStateException();
+        }
+        return s.swap(client, fadeFrames);
+    }
+
     @Override
     public AudioConfiguration getAudioContext() {
         return context;
@@ -143,88 +246,517 @@ public class JSAudioServer implements AudioServer {
         } while (!state.compareAndSet(st, State.Closing));
     }
 
+    private AudioClient activeClient() {
+        return swapper == null ? client : swapper;
+    }
+
     private void initialise() throws Exception {
         float srate = (float) context.getSampleRate();
         int buffersize = context.getMaxBufferSize();
+        int blocksize = buffersize;
+        if (clientBlockSize != null && clientBlockSize.getFrames() < buffersize) {
+            blocksize = clientBlockSize.getFrames();
+            if (buffersize % blocksize != 0) {
+                throw new IllegalArgumentException("Client block size "
+                        + blocksize + " does not divide buffer size " + buffersize);
+            }
+        }
+        bufferSize = buffersize;
+        JSCapabilityCache capabilityCache = context.find(JSCapabilityCache.class);
+        capabilityStore = capabilityCache == null ? null : capabilityCache.getFile();
+        boolean split = !context.isFixedBufferSize()
+                && client instanceof SplitAudioClient;
         int inputChannels = context.getInputChannelCount();
         int outputChannels = context.getOutputChannelCount();
+        int deviceInputs = inputChannels;
+        int deviceOutputs = outputChannels;
+        if (routing != null) {
+            routing.validate(inputChannels, outputChannels);
+            deviceInputs = routing.getDeviceInputChannelCount();
+            deviceOutputs = routing.getDeviceOutputChannelCount();
+            compileRoutes();
+        }
+        if (aggregate != null) {
+            if (routing != null) {
+                throw new IllegalArgumentException("JSAggregate cannot be used with ChannelRouting");
+            }
+            deviceOutputs -= aggregate.getSecondaryChannelCount();
+            if (deviceOutputs < 1) {
+                throw new IllegalArgumentException("Not enough output channels for JSAggregate");
+            }
+        }
+        if (deviceInputs == 0 && deviceOutputs == 0) {
+            throw new IllegalArgumentException("No input or output channels");
+        }
+        // a line may open at another rate than requested even without a
+        // resampler quality in the configuration
+        JSResamplerQuality quality = resamplerQuality == null
+                ? JSResamplerQuality.Medium : resamplerQuality;
         // open input line and create internal buffers
-        if (inputChannels > 0) {
-            AudioFormat inputFormat = new AudioFormat(srate, lineBitSize,
-                    inputChannels, signed, bigEndian);
-            DataLine.Info inputInfo = new DataLine.Info(TargetDataLine.class, inputFormat);
-            if (inputMixer == null) {
-                inputLine = (TargetDataLine) AudioSystem.getLine(inputInfo);
-            } else {
-                inputLine = (TargetDataLine) inputMixer.getLine(inputInfo);
-            }          
-            inputFloatBuffer = new float[buffersize * inputChannels];
-            int byteBufferSize = buffersize * inputFormat.getFrameSize();
-            inputByteBuffer = new byte[byteBufferSize];
-            byteBufferSize *= nonBlockingOutputRatio;
-            inputLine.open(inputFormat, byteBufferSize);
-
+        if (deviceInputs > 0) {
+            inputLine = (TargetDataLine) openLine(inputMixer,
+                    TargetDataLine.class, deviceInputs, srate, buffersize, false);
+            AudioFormat inputFormat = inputLine.getFormat();
+            inputFloatBuffer = new float[buffersize * deviceInputs];
+            int frames = buffersize;
+            // input from a different device to the master output drifts
+            boolean compensate = aggregate != null && inputMixer != outputMixer;
+            if (inputFormat.getSampleRate() != srate || compensate) {
+                float deviceRate = inputFormat.getSampleRate();
+                double cycleFrames = buffersize * deviceRate / srate;
+                frames = (int) Math.ceil(compensate
+                        ? cycleFrames * (1 + DriftCompensator.MAX_CORRECTION)
+                        : cycleFrames) + quality.taps + 2;
+                inputResampler = new Resampler(deviceInputs, deviceRate, srate,
+                        frames, quality);
+                inputDeviceBuffer = new float[frames * deviceInputs];
+                if (compensate) {
+                    inputCompensator = new DriftCompensator(inputResampler,
+                            cycleFrames, cycleFrames * 2, buffersize / srate, 0.05);
+                }
+            }
+            inputByteBuffer = new byte[frames * inputFormat.getFrameSize()];
         }
         // open output line and create internal buffers
-        AudioFormat outputFormat = new AudioFormat(srate, lineBitSize,
-                outputChannels, signed, bigEndian);
-        DataLine.Info outputInfo = new DataLine.Info(SourceDataLine.class, outputFormat);
-        if (outputMixer == null) {
-            outputLine = (SourceDataLine) AudioSystem.getLine(outputInfo);
+        // without device outputs the server is paced by blocking input reads
+        if (deviceOutputs > 0) {
+            outputLine = (SourceDataLine) openLine(outputMixer,
+                    SourceDataLine.class, deviceOutputs, srate, buffersize, false);
+            AudioFormat outputFormat = outputLine.getFormat();
+            outputFloatBuffer = new float[buffersize * deviceOutputs];
+            int frames = buffersize;
+            if (outputFormat.getSampleRate() != srate) {
+                float deviceRate = outputFormat.getSampleRate();
+                frames = (int) Math.ceil(buffersize * deviceRate / srate)
+                        + quality.taps + 2;
+                outputResampler = new Resampler(deviceOutputs, srate, deviceRate,
+                        buffersize, quality);
+                outputDeviceBuffer = new float[frames * deviceOutputs];
+            }
+            outputByteBuffer = new byte[frames * outputFormat.getFrameSize()];
         } else {
-            outputLine = (SourceDataLine) outputMixer.getLine(outputInfo);
+            outputFloatBuffer = new float[0];
         }
-        outputFloatBuffer = new float[buffersize * outputChannels];
-        int byteBufferSize = buffersize * outputFormat.getFrameSize();
-        outputByteBuffer = new byte[byteBufferSize];
-        if (mode != JSTimingMode.Blocking) {
-            byteBufferSize *= nonBlockingOutputRatio;
-            byteBufferSize = Math.min(byteBufferSize,
-                    NON_BLOCKING_MIN_BUFFER * outputFormat.getFrameSize());
+
+        // open secondary output lines of an aggregate device
+        if (aggregate != null) {
+            List<Device> devices = aggregate.getOutputDevices();
+            aggregateOutputs = new AggregateOutput[devices.size()];
+            int offset = deviceOutputs;
+            for (int i = 0; i < aggregateOutputs.length; i++) {
+                Mixer mixer = devices.get(i).find(Mixer.class);
+                if (mixer == null) {
+                    throw new IllegalArgumentException("Not a JavaSound device : "
+                            + devices.get(i));
+                }
+                int channels = aggregate.getOutputChannelCount(i);
+                SourceDataLine line = (SourceDataLine) openLine(mixer,
+                        SourceDataLine.class, channels, srate, buffersize, true);
+                aggregateOutputs[i] = new AggregateOutput(line, offset,
+                        buffersize, srate, quality);
+                offset += channels;
+            }
         }
-        outputLine.open(outputFormat, byteBufferSize);
 
         // create audio converter
-        converter = AudioFloatConverter.getConverter(outputFormat);
+        converter = AudioFloatConverter.getConverter(outputLine == null
+                ? inputLine.getFormat() : outputLine.getFormat());
 
         // create client buffers
-        List<FloatBuffer> ins = new ArrayList<>(inputChannels);
-        for (int i = 0; i < inputChannels; i++) {
-            ins.add(FloatBuffer.allocate(buffersize));
+        if (bufferType == JSBufferType.Direct) {
+            int count = inputChannels + outputChannels;
+            if (pipelining.getAdditionalBuffers() > 0) {
+                count *= 2;
+            }
+            int size = count * alignedSize(buffersize);
+            if (split) {
+                size += (inputChannels + outputChannels) * alignedSize(blocksize);
+            }
+            bufferSlab = allocateSlab(size);
+        }
+        inputBuffers = createBuffers(inputChannels, buffersize);
+        outputBuffers = createBuffers(outputChannels, buffersize);
+        boolean interleaved = !split && blocksize == buffersize
+                && pipelining.getAdditionalBuffers() == 0
+                && routing == null && aggregate == null
+                && client instanceof InterleavedAudioClient;
+        // double conversion is fused into the plain conversion path only
+        boolean doubled = !split && !interleaved && blocksize == buffersize
+                && pipelining.getAdditionalBuffers() == 0
+                && routing == null && aggregate == null
+                && inputResampler == null && outputResampler == null
+                && client instanceof DoubleAudioClient;
+        AudioClient base = client;
+        if (!split && !interleaved && !doubled) {
+            swapper = new SwappableAudioClient(client);
+            base = swapper;
+        }
+        // channel state is only accurate if the client processes the buffers
+        // it is filled for
+        if (pipelining.getAdditionalBuffers() == 0 && !interleaved) {
+            channelState = new ChannelState(inputChannels, outputChannels);
+            if (inputLine == null) {
+                for (int channel = 0; channel < inputChannels; channel++) {
+                    channelState.setInputState(channel, true, true, true);
+                }
+            }
+        }
+        processor = base;
+        ClientBlocks blocks = null;
+        if (split) {
+            processor = new ClientSplitter((SplitAudioClient) client,
+                    blocksize, srate,
+                    createBuffers(inputChannels, blocksize),
+                    createBuffers(outputChannels, blocksize), channelState);
+        } else if (blocksize < buffersize) {
+            blocks = new ClientBlocks(base, blocksize, buffersize, srate, channelState);
+            blocks.register(inputBuffers, outputBuffers);
+            processor = blocks;
         }
-        inputBuffers = Collections.unmodifiableList(ins);
-        List<FloatBuffer> outs = new ArrayList<>(outputChannels);
-        for (int i = 0; i < outputChannels; i++) {
-            outs.add(FloatBuffer.allocate(buffersize));
+        int pipelineLatency = 0;
+        if (pipelining.getAdditionalBuffers() > 0) {
+            List<FloatBuffer> pipelineInputs = createBuffers(inputChannels, buffersize);
+            List<FloatBuffer> pipelineOutputs = createBuffers(outputChannels, buffersize);
+            if (blocks != null) {
+                blocks.register(pipelineInputs, pipelineOutputs);
+            }
+            pipeline = new ClientPipeline(processor,
+                    inputBuffers, outputBuffers,
+                    pipelineInputs, pipelineOutputs,
+                    (long) (1e9 * buffersize / srate));
+            pipelineLatency = buffersize;
+        } else if (interleaved) {
+            interleavedClient = (InterleavedAudioClient) client;
+            interleavedInput = inputFloatBuffer == null
+                    ? FloatBuffer.allocate(0)
+                    : FloatBuffer.wrap(inputFloatBuffer);
+            interleavedOutput = FloatBuffer.wrap(outputFloatBuffer);
+        } else if (doubled) {
+            doubleClient = (DoubleAudioClient) client;
+            if (inputFloatBuffer != null) {
+                inputDoubleBuffer = new double[inputFloatBuffer.length];
+            }
+            outputDoubleBuffer = new double[outputFloatBuffer.length];
+            inputDoubles = createDoubleBuffers(inputChannels, buffersize);
+            outputDoubles = createDoubleBuffers(outputChannels, buffersize);
+        }
+        // add latency to context passed to client
+        List<Object> exts = new ArrayList<>();
+        for (Object ext : context.findAll(Object.class)) {
+            exts.add(ext);
+        }
+        int inputLatency = buffersize;
+        if (inputResampler != null) {
+            inputLatency += (int) (inputResampler.getLatency() / inputResampler.getRatio());
+        }
+        int outputLatency = outputLine == null ? 0 : buffersize + pipelineLatency;
+        if (outputResampler != null) {
+            outputLatency += outputResampler.getLatency();
+        }
+        exts.add(new Latency(inputLatency, outputLatency));
+        clock = context.find(AudioClock.class);
+        if (clock == null) {
+            clock = new AudioClock();
+            exts.add(clock);
+        }
+        clock.reset(srate, buffersize);
+        load = context.find(ProcessingLoad.class);
+        if (load == null) {
+            load = new ProcessingLoad();
+            exts.add(load);
+        }
+        load.reset(srate);
+        watchdog = context.find(Watchdog.class);
+        if (watchdog != null) {
+            if (outputLine == null) {
+                LOG.log(Level.WARNING, "{0} not supported without output", watchdog);
+                watchdog = null;
+            } else {
+                outputWatchdog = new OutputWatchdog(watchdog, outputLine,
+                        outputByteBuffer.length, (long) (1e9 * buffersize / srate));
+            }
+        }
+        if (channelState != null) {
+            exts.add(channelState);
+        }
+        idleFrames = -1;
+        if (idlePolicy != null) {
+            if (channelState == null || outputLine == null || aggregate != null) {
+                LOG.log(Level.WARNING, "{0} not supported in this configuration", idlePolicy);
+            } else {
+                idleFrames = (long) (idlePolicy.getTimeoutMillis() * srate / 1000);
+            }
+        }
+        context = new AudioConfiguration(context.getSampleRate(),
+                inputChannels,
+                outputChannels,
+                blocksize,
+                context.isFixedBufferSize(),
+                exts.toArray());
+    }
+
+    private void compileRoutes() {
+        // input routes grouped by client channel
+        int clientInputs = context.getInputChannelCount();
+        List<ChannelRouting.Route> routes = routing.getInputRoutes();
+        inputRouteStarts = new int[clientInputs + 1];
+        inputRouteSources = new int[routes.size()];
+        inputRouteGains = new float[routes.size()];
+        int index = 0;
+        for (int channel = 0; channel < clientInputs; channel++) {
+            inputRouteStarts[channel] = index;
+            for (ChannelRouting.Route route : routes) {
+                if (route.getTarget() == channel) {
+                    inputRouteSources[index] = route.getSource();
+                    inputRouteGains[index] = route.getGain();
+                    index++;
+                }
+            }
+        }
+        inputRouteStarts[clientInputs] = index;
+        routes = routing.getOutputRoutes();
+        outputRouteSources = new int[routes.size()];
+        outputRouteTargets = new int[routes.size()];
+        outputRouteGains = new float[routes.size()];
+        for (int i = 0; i < routes.size(); i++) {
+            outputRouteSources[i] = routes.get(i).getSource();
+            outputRouteTargets[i] = routes.get(i).getTarget();
+            outputRouteGains[i] = routes.get(i).getGain();
         }
-        outputBuffers = Collections.unmodifiableList(outs);
+    }
+
+    private DataLine openLine(Mixer mixer, Class<? extends DataLine> type,
+            int channels, float srate, int buffersize, boolean secondary)
+            throws Exception {
+        Exception failure = null;
+        float[] rates = candidateRates(srate, secondary);
+        LineCapabilities caps = LineCapabilities.cached(mixer,
+                type == SourceDataLine.class, channels, capabilityStore);
+        if (caps != null) {
+            // skip rates already known to fail, unless the cache is stale
+            float[] supported = new float[rates.length];
+            int count = 0;
+            for (float rate : rates) {
+                if (caps.isRateSupported(rate)) {
+                    supported[count++] = rate;
+                }
+            }
+            if (count > 0) {
+                rates = Arrays.copyOf(supported, count);
+            }
+        }
+        for (float rate : rates) {
+            AudioFormat format = new AudioFormat(rate, lineBitSize,
+                    channels, signed, bigEndian);
+            DataLine.Info info = new DataLine.Info(type, format);
+            int frames = (int) Math.ceil(buffersize * rate / srate);
+            int byteBufferSize = frames * format.getFrameSize();
+            if (type == TargetDataLine.class || secondary) {
+                byteBufferSize *= nonBlockingOutputRatio;
+            } else if (mode != JSTimingMode.Blocking) {
+                byteBufferSize *= nonBlockingOutputRatio;
+                byteBufferSize = Math.min(byteBufferSize,
+                        NON_BLOCKING_MIN_BUFFER * format.getFrameSize());
+            }
+            try {
+                DataLine line;
+                if (mixer == null) {
+                    line = (DataLine) AudioSystem.getLine(info);
+                } else {
+                    line = (DataLine) mixer.getLine(info);
+                }
+                if (line instanceof TargetDataLine) {
+                    ((TargetDataLine) line).open(format, byteBufferSize);
+                } else {
+                    ((SourceDataLine) line).open(format, byteBufferSize);
+                }
+                if (rate != srate) {
+                    LOG.log(Level.FINE, "Resampling {0} from {1} to {2}",
+                            new Object[]{type.getSimpleName(), srate, rate});
+                }
+                return line;
+            } catch (IllegalArgumentException | LineUnavailableException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+                LOG.log(Level.FINE, "Unable to open line at " + rate, ex);
+            }
+        }
+        throw failure;
+    }
+
+    private float[] candidateRates(float srate, boolean resampled) {
+        if (resamplerQuality == null && !resampled) {
+            return new float[]{srate};
+        }
+        float[] rates = new float[FALLBACK_RATES.length + 1];
+        rates[0] = srate;
+        int count = 1;
+        for (float rate : FALLBACK_RATES) {
+            if (rate != srate) {
+                rates[count++] = rate;
+            }
+        }
+        return Arrays.copyOf(rates, count);
+    }
+
+    private List<FloatBuffer> createBuffers(int channels, int buffersize) {
+        List<FloatBuffer> buffers = new ArrayList<>(channels);
+        for (int i = 0; i < channels; i++) {
+            if (bufferSlab == null) {
+                buffers.add(FloatBuffer.allocate(buffersize));
+            } else {
+                int position = bufferSlab.position();
+                bufferSlab.limit(position + buffersize * 4);
+                buffers.add(bufferSlab.slice()
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer());
+                bufferSlab.limit(bufferSlab.capacity());
+                bufferSlab.position(position + alignedSize(buffersize));
+            }
+        }
+        return Collections.unmodifiableList(buffers);
+    }
+
+    private List<DoubleBuffer> createDoubleBuffers(int channels, int buffersize) {
+        List<DoubleBuffer> buffers = new ArrayList<>(channels);
+        // aligned size of a float buffer twice as long
+        int size = alignedSize(buffersize * 2);
+        ByteBuffer slab = bufferType == JSBufferType.Direct
+                ? allocateSlab(channels * size) : null;
+        for (int i = 0; i < channels; i++) {
+            if (slab == null) {
+                buffers.add(DoubleBuffer.allocate(buffersize));
+            } else {
+                slab.limit(i * size + buffersize * 8);
+                slab.position(i * size);
+                buffers.add(slab.slice()
+                        .order(ByteOrder.nativeOrder())
+                        .asDoubleBuffer());
+                slab.clear();
+            }
+        }
+        return Collections.unmodifiableList(buffers);
+    }
+
+    private static int alignedSize(int buffersize) {
+        int bytes = buffersize * 4;
+        return (bytes + BUFFER_ALIGNMENT - 1) / BUFFER_ALIGNMENT * BUFFER_ALIGNMENT;
+    }
+
+    private static ByteBuffer allocateSlab(int size) {
+        ByteBuffer slab = ByteBuffer.allocateDirect(size + BUFFER_ALIGNMENT);
+        try {
+            // ByteBuffer::alignedSlice is only available from Java 9
+            Method aligned = ByteBuffer.class.getMethod("alignedSlice", int.class);
+            slab = (ByteBuffer) aligned.invoke(slab, BUFFER_ALIGNMENT);
+        } catch (Exception ex) {
+            LOG.log(Level.FINE, "Unable to align direct buffers", ex);
+        }
+        return slab;
     }
 
     private void runImpl() {
+        if (pipeline != null) {
+            pipeline.start();
+        }
+        if (warmup != null && !warmup()) {
+            shutdown();
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+            return;
+        }
         if (inputLine != null) {
             inputLine.start();
         }
-        outputLine.start();
+        if (outputLine != null) {
+            outputLine.start();
+        }
+        if (aggregateOutputs != null) {
+            for (AggregateOutput output : aggregateOutputs) {
+                output.start();
+            }
+        }
+        boolean captureOnly = outputLine == null;
 
         long startTime = System.nanoTime();
         long now = startTime;
-        double bufferTime = ((double) context.getMaxBufferSize()
+        double bufferTime = ((double) bufferSize
                 / context.getSampleRate());
-        TimeFilter dll = new TimeFilter(bufferTime, 1.5);
-//        bufferTime *= 1e9;
         long bufferCount = 0;
-        int bufferSize = context.getMaxBufferSize();
         final boolean debug = LOG.isLoggable(Level.FINEST);
         long bufferTimeNS = (long) (bufferTime * 1e9);
-        long msFrames = (long) (context.getSampleRate() / 1000);
+        // frame position is measured at the device sample rate
+        float deviceRate = captureOnly ? inputLine.getFormat().getSampleRate()
+                : outputLine.getFormat().getSampleRate();
+        double deviceBufferSize = bufferSize * deviceRate / context.getSampleRate();
+        long msFrames = (long) (deviceRate / 1000);
+        long startFrame = 0;
         long target, difference;
+        boolean idleEnabled = idleFrames >= 0;
+        long silentFrames = 0;
+        if (idleEnabled) {
+            idlePolicy.attach(Thread.currentThread());
+        }
+        OutputWatchdog guard = outputWatchdog;
+        if (guard != null) {
+            guard.start();
+        }
+        int substituted = 0;
+        boolean ok;
         try {
             while (state.get() == State.Active) {
                 now = System.nanoTime();
                 readInput();
-                if (client.process((long) (dll.update(now / 1e9) * 1e9), inputBuffers, outputBuffers, bufferSize)) {
+                if (captureOnly) {
+                    // input has just arrived - read blocks for timing
+                    now = System.nanoTime();
+                }
+                if (guard != null && watchdog.isBypassed()) {
+                    clock.update(now);
+                    silenceOutput();
+                    ok = true;
+                } else {
+                    long time = clock.update(now);
+                    if (guard != null) {
+                        guard.enter(now);
+                    }
+                    long processStart = System.nanoTime();
+                    ok = processClient(time, bufferSize);
+                    // the device thread only waits on a pipelined client
+                    load.update(pipeline == null
+                            ? System.nanoTime() - processStart
+                            : pipeline.getProcessNanos(), bufferSize);
+                    if (guard != null) {
+                        substituted = guard.exit();
+                    }
+                }
+                if (ok && substituted > 0) {
+                    // the watchdog has written this and any later cycles
+                    // while the client was late - discard the late output
+                    bufferCount += substituted;
+                    substituted = 0;
+                    silentFrames = 0;
+                } else if (ok) {
+                    if (idleEnabled) {
+                        // check before writeOutput() might resolve the flags
+                        if (idlePolicy.consumeWake() || !channelState.isAllOutputsSilent()) {
+                            silentFrames = 0;
+                        } else {
+                            silentFrames += bufferSize;
+                        }
+                    }
                     writeOutput();
-                    switch (mode) {
+                    if (guard != null) {
+                        guard.written(outputByteBuffer, outputLength);
+                    }
+                    if (aggregateOutputs != null) {
+                        for (int i = 0; i < aggregateOutputs.length; i++) {
+                            aggregateOutputs[i].write(outputBuffers);
+                        }
+                    }
+                    switch (captureOnly ? JSTimingMode.Blocking : mode) {
                         case Estimated:
                             target = startTime + (long) (bufferTimeNS * (bufferCount + 1));
                             difference = System.nanoTime() - target;
@@ -241,9 +773,9 @@ public class JSAudioServer implements AudioServer {
                             }
                             break;
                         case FramePosition:
-                            target = bufferCount * bufferSize;
+                            target = startFrame + (long) (bufferCount * deviceBufferSize);
                             difference = outputLine.getLongFramePosition() - target;
-                            while (difference < -(bufferSize / 16)) {
+                            while (difference < -(deviceBufferSize / 16)) {
                                 if (difference < -msFrames) {
                                     try {
                                         LockSupport.parkNanos(500000);
@@ -259,85 +791,495 @@ public class JSAudioServer implements AudioServer {
                             // do nothing - blocking on write
                     }
                     bufferCount++;
+                    if (idleEnabled && silentFrames >= idleFrames) {
+                        int written = idle();
+                        if (written < 0) {
+                            shutdown();
+                        } else {
+                            // restart pacing and timing from the wake up
+                            startTime = System.nanoTime();
+                            startFrame = outputLine.getLongFramePosition();
+                            bufferCount = written;
+                            clock.reset(context.getSampleRate(), bufferSize);
+                        }
+                        silentFrames = 0;
+                    }
                 } else {
                     shutdown();
                 }
                 if (debug) {
-                    processDebug(dll);
+                    processDebug();
+                }
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.SEVERE, "", ex);
+        }
+        if (idleEnabled) {
+            idlePolicy.detach();
+        }
+        if (guard != null) {
+            guard.stop();
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * Run the idle heartbeat until woken, either through the policy or by the
+     * client output not being silent. Returns the number of buffers written on
+     * waking, or -1 if the client failed.
+     */
+    private int idle() {
+        SourceDataLine sdl = outputLine;
+        long heartbeatNanos = idlePolicy.getHeartbeatMillis() * 1000000L;
+        // output is already silent, so stopping the line will not click
+        sdl.stop();
+        sdl.flush();
+        if (inputLine != null) {
+            inputLine.stop();
+            inputLine.flush();
+        }
+        idlePolicy.setIdle(true);
+        LOG.fine("Idle");
+        int written = 0;
+        while (state.get() == State.Active) {
+            if (idlePolicy.consumeWake()) {
+                break;
+            }
+            LockSupport.parkNanos(heartbeatNanos);
+            if (idlePolicy.consumeWake()) {
+                break;
+            }
+            readInput();
+            if (!processClient(System.nanoTime(), bufferSize)) {
+                written = -1;
+                break;
+            }
+            if (!channelState.isAllOutputsSilent()) {
+                written = 1;
+                break;
+            }
+        }
+        idlePolicy.setIdle(false);
+        sdl.start();
+        if (inputLine != null) {
+            inputLine.flush();
+            inputLine.start();
+        }
+        if (written > 0) {
+            writeOutput();
+        }
+        LOG.fine("Woken from idle");
+        return written;
+    }
+
+    private boolean warmup() {
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        boolean settle = warmup.isUntilSettled() && compiler != null
+                && compiler.isCompilationTimeMonitoringSupported();
+        long start = System.nanoTime();
+        long compileTime = settle ? compiler.getTotalCompilationTime() : 0;
+        long stableTime = start;
+        int stableCycles = 0;
+        int cycle = 0;
+        warmingUp = true;
+        try {
+            while (cycle < warmup.getCycles() && state.get() == State.Active) {
+                readInput();
+                if (!processClient(System.nanoTime(), bufferSize)) {
+                    return false;
+                }
+                writeOutput();
+                cycle++;
+                if (settle) {
+                    long time = compiler.getTotalCompilationTime();
+                    if (time != compileTime) {
+                        compileTime = time;
+                        stableCycles = 0;
+                        stableTime = System.nanoTime();
+                    } else if (++stableCycles >= WARMUP_SETTLE_CYCLES
+                            && System.nanoTime() - stableTime > WARMUP_SETTLE_NANOS) {
+                        break;
+                    }
                 }
             }
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, "", ex);
+            return false;
+        } finally {
+            warmingUp = false;
+        }
+        if (inputResampler != null) {
+            inputResampler.reset();
+        }
+        if (outputResampler != null) {
+            outputResampler.reset();
         }
+        LOG.log(Level.FINE, "Warm-up finished after {0} cycles in {1} ms",
+                new Object[]{cycle, (System.nanoTime() - start) / 1000000});
+        return true;
     }
 
-    private void processDebug(TimeFilter dll) {
-        long x = dll.ncycles - 1;
-        if (x == 0) {
-            LOG.finest("| audiotime drift | filter drift  | systime jitter | filter jitter  |");
+    private boolean processClient(long time, int nframes) {
+        if (pipeline == null) {
+            if (doubleClient != null) {
+                if (channelState != null) {
+                    channelState.clearOutputs();
+                }
+                return doubleClient.processDouble(time, inputDoubles, outputDoubles, nframes);
+            }
+            if (interleavedClient != null) {
+                interleavedInput.rewind();
+                interleavedOutput.rewind();
+                return interleavedClient.processInterleaved(time,
+                        interleavedInput, interleavedOutput, nframes);
+            }
+            if (channelState != null) {
+                channelState.clearOutputs();
+            }
+            return processor.process(time, inputBuffers, outputBuffers, nframes);
         }
-        if (x % 1000 == 0) {
-            double device_drift = (dll.device_time - dll.system_time) * 1000.0;
-            double filter_drift = (dll.filter_time - dll.system_time) * 1000.0;
-            double device_rate_error = device_drift / dll.ncycles;
-            double filter_jitter = dll.filter_period_error - device_rate_error;
-            double system_jitter = dll.system_period_error - device_rate_error;
+        boolean ok = pipeline.process(time, nframes);
+        inputBuffers = pipeline.getInputBuffers();
+        outputBuffers = pipeline.getOutputBuffers();
+        return ok;
+    }
 
-            LOG.finest(String.format("| %15.6f | %13.6f | %14.6f | %14.6f |",
-                    device_drift,
-                    filter_drift,
-                    system_jitter,
-                    filter_jitter));
+    private void processDebug() {
+        long x = clock.getCycles();
+        if (x == 1) {
+            LOG.finest("| drift (ppm) | jitter (us) | estimated rate | load | level |");
+        }
+        if (x % 1000 == 1) {
+            LOG.finest(String.format("| %11.3f | %11.3f | %14.3f | %4.2f | %5d |",
+                    clock.getDrift() * 1e6,
+                    clock.getJitter() / 1000,
+                    clock.getEstimatedSampleRate(),
+                    load.getLoad(),
+                    load.getLevel()));
         }
     }
 
     private void readInput() {
         TargetDataLine tdl = inputLine;
         if (tdl != null) {
-            int bsize = inputByteBuffer.length;
-            if (tdl.available() < bsize) {
-                int fsize = inputFloatBuffer.length;
-                for (int i = 0; i < fsize; i++) {
-                    inputFloatBuffer[i] = 0;
+            Resampler resampler = inputResampler;
+            if (resampler == null) {
+                int bsize = inputByteBuffer.length;
+                if (warmingUp) {
+                    // convert the silent byte buffer
+                    convertInput();
+                } else if (outputLine != null && tdl.available() < bsize) {
+                    zeroInput();
+                } else {
+                    tdl.read(inputByteBuffer, 0, bsize);
+                    convertInput();
                 }
             } else {
-                tdl.read(inputByteBuffer, 0, bsize);
-                converter.toFloatArray(inputByteBuffer, inputFloatBuffer);
+                int channels = tdl.getFormat().getChannels();
+                if (inputCompensator != null && !warmingUp) {
+                    inputCompensator.update(tdl.available()
+                            / tdl.getFormat().getFrameSize());
+                }
+                int frames = resampler.required(bufferSize);
+                int bsize = frames * tdl.getFormat().getFrameSize();
+                if (!warmingUp && outputLine != null && tdl.available() < bsize) {
+                    zeroInput();
+                } else {
+                    if (!warmingUp) {
+                        tdl.read(inputByteBuffer, 0, bsize);
+                    }
+                    converter.toFloatArray(inputByteBuffer, inputDeviceBuffer, frames * channels);
+                    resampler.write(inputDeviceBuffer, 0, frames);
+                    resampler.read(inputFloatBuffer, 0, bufferSize);
+                }
+            }
+            if (interleavedClient != null) {
+                return;
+            }
+            if (doubleClient != null) {
+                deinterleaveDouble();
+                return;
+            }
+            if (routing != null) {
+                deinterleaveRouted();
+                return;
             }
             int channels = inputBuffers.size();
-            // deinterleave into buffers
+            // deinterleave into buffers, checking for constant channels
             for (int channel = 0; channel < channels; channel++) {
                 FloatBuffer inBuf = inputBuffers.get(channel);
-                float[] input = inBuf.array();
-                for (int i = 0, x = channel; i < input.length; i++) {
-                    input[i] = inputFloatBuffer[x];
-                    x += channels;
+                float first = inputFloatBuffer[channel];
+                boolean constant = true;
+                float in;
+                if (inBuf.hasArray()) {
+                    float[] input = inBuf.array();
+                    for (int i = 0, x = channel; i < input.length; i++) {
+                        in = inputFloatBuffer[x];
+                        input[i] = in;
+                        constant &= in == first;
+                        x += channels;
+                    }
+                } else {
+                    int size = inBuf.capacity();
+                    for (int i = 0, x = channel; i < size; i++) {
+                        in = inputFloatBuffer[x];
+                        inBuf.put(i, in);
+                        constant &= in == first;
+                        x += channels;
+                    }
                 }
                 inBuf.rewind();
+                if (channelState != null) {
+                    channelState.setInputState(channel, constant,
+                            constant && first == 0, false);
+                }
+            }
+        }
+    }
+
+    private void deinterleaveRouted() {
+        int channels = inputBuffers.size();
+        int deviceChannels = inputLine.getFormat().getChannels();
+        int frames = bufferSize;
+        for (int channel = 0; channel < channels; channel++) {
+            FloatBuffer inBuf = inputBuffers.get(channel);
+            int start = inputRouteStarts[channel];
+            int end = inputRouteStarts[channel + 1];
+            if (start == end) {
+                for (int i = 0; i < frames; i++) {
+                    inBuf.put(i, 0);
+                }
+                if (channelState != null) {
+                    channelState.setInputState(channel, true, true, true);
+                }
             }
+            for (int r = start; r < end; r++) {
+                float gain = inputRouteGains[r];
+                boolean first = r == start;
+                // only the last route sees the final values
+                boolean constant = true;
+                float value = 0;
+                for (int i = 0, x = inputRouteSources[r]; i < frames; i++) {
+                    float in = inputFloatBuffer[x] * gain;
+                    in = first ? in : inBuf.get(i) + in;
+                    inBuf.put(i, in);
+                    if (i == 0) {
+                        value = in;
+                    }
+                    constant &= in == value;
+                    x += deviceChannels;
+                }
+                if (r == end - 1 && channelState != null) {
+                    channelState.setInputState(channel, constant,
+                            constant && value == 0, false);
+                }
+            }
+            inBuf.rewind();
+        }
+    }
+
+    private void interleaveRouted() {
+        int deviceChannels = outputLine.getFormat().getChannels();
+        int frames = bufferSize;
+        float[] output = outputFloatBuffer;
+        for (int i = 0; i < output.length; i++) {
+            output[i] = 0;
+        }
+        for (int r = 0; r < outputRouteSources.length; r++) {
+            FloatBuffer outBuf = outputBuffers.get(outputRouteSources[r]);
+            float gain = outputRouteGains[r];
+            for (int i = 0, x = outputRouteTargets[r]; i < frames; i++) {
+                output[x] += outBuf.get(i) * gain;
+                x += deviceChannels;
+            }
+        }
+        for (int channel = 0; channel < outputBuffers.size(); channel++) {
+            outputBuffers.get(channel).rewind();
+        }
+        float out;
+        for (int i = 0; i < output.length; i++) {
+            out = output[i];
+            output[i] = out < -1 ? -1 : out > 1 ? 1 : out;
+        }
+    }
+
+    private void convertInput() {
+        if (inputDoubleBuffer != null) {
+            converter.toDoubleArray(inputByteBuffer, inputDoubleBuffer);
+        } else {
+            converter.toFloatArray(inputByteBuffer, inputFloatBuffer);
+        }
+    }
+
+    private void zeroInput() {
+        int fsize = inputFloatBuffer.length;
+        for (int i = 0; i < fsize; i++) {
+            inputFloatBuffer[i] = 0;
+        }
+        if (inputDoubleBuffer != null) {
+            Arrays.fill(inputDoubleBuffer, 0);
+        }
+    }
+
+    private void deinterleaveDouble() {
+        int channels = inputDoubles.size();
+        double[] interleaved = inputDoubleBuffer;
+        for (int channel = 0; channel < channels; channel++) {
+            DoubleBuffer inBuf = inputDoubles.get(channel);
+            double first = interleaved[channel];
+            boolean constant = true;
+            double in;
+            for (int i = 0, x = channel; i < bufferSize; i++) {
+                in = interleaved[x];
+                inBuf.put(i, in);
+                constant &= in == first;
+                x += channels;
+            }
+            inBuf.rewind();
+            if (channelState != null) {
+                channelState.setInputState(channel, constant,
+                        constant && first == 0, false);
+            }
+        }
+    }
+
+    private void interleaveDouble() {
+        int channels = outputDoubles.size();
+        double[] interleaved = outputDoubleBuffer;
+        for (int channel = 0; channel < channels; channel++) {
+            DoubleBuffer outBuf = outputDoubles.get(channel);
+            if (channelState != null && channelState.isOutputSilent(channel)) {
+                for (int i = 0, x = channel; i < bufferSize; i++) {
+                    interleaved[x] = 0;
+                    x += channels;
+                }
+            } else {
+                double out;
+                for (int i = 0, x = channel; i < bufferSize; i++) {
+                    out = outBuf.get(i);
+                    interleaved[x] = out < -1 ? -1 : out > 1 ? 1 : out;
+                    x += channels;
+                }
+            }
+            outBuf.rewind();
         }
     }
 
     private void writeOutput() {
-        // interleave outputs
-        int channels = outputBuffers.size();
+        if (outputLine == null) {
+            return;
+        }
+        if (channelState != null && (routing != null || aggregateOutputs != null)) {
+            // routed and aggregate outputs read the client buffers directly
+            channelState.resolveOutputs(outputBuffers, bufferSize);
+        }
+        Resampler resampler = outputResampler;
+        if (resampler == null && channelState != null
+                && channelState.isAllOutputsSilent()) {
+            // signed PCM - skip interleaving and conversion
+            Arrays.fill(outputByteBuffer, (byte) 0);
+            writeBytes(outputByteBuffer.length);
+            return;
+        }
+        if (doubleClient != null) {
+            interleaveDouble();
+            converter.toByteArray(outputDoubleBuffer, outputByteBuffer);
+            writeBytes(outputByteBuffer.length);
+            return;
+        }
+        if (interleavedClient != null) {
+            // clip interleaved output in place
+            float out;
+            for (int i = 0; i < outputFloatBuffer.length; i++) {
+                out = outputFloatBuffer[i];
+                outputFloatBuffer[i] = out < -1 ? -1 : out > 1 ? 1 : out;
+            }
+        } else if (routing != null) {
+            interleaveRouted();
+        } else {
+            interleaveOutput();
+        }
+        if (resampler == null) {
+            // convert audio
+            converter.toByteArray(outputFloatBuffer, outputByteBuffer);
+            // write to output
+            writeBytes(outputByteBuffer.length);
+        } else {
+            int channels = outputLine.getFormat().getChannels();
+            resampler.write(outputFloatBuffer, 0, bufferSize);
+            int frames = resampler.read(outputDeviceBuffer, 0,
+                    outputDeviceBuffer.length / channels);
+            converter.toByteArray(outputDeviceBuffer, frames * channels, outputByteBuffer);
+            writeBytes(frames * outputLine.getFormat().getFrameSize());
+        }
+
+    }
+
+    private void writeBytes(int length) {
+        outputLength = length;
+        if (!warmingUp) {
+            outputLine.write(outputByteBuffer, 0, length);
+        }
+    }
+
+    /**
+     * Silence all client output buffers, for writing in place of the output
+     * of a bypassed client.
+     */
+    private void silenceOutput() {
+        if (channelState != null) {
+            channelState.clearOutputs();
+        }
+        for (int i = 0; i < outputBuffers.size(); i++) {
+            FloatBuffer buffer = outputBuffers.get(i);
+            for (int j = 0, size = buffer.capacity(); j < size; j++) {
+                buffer.put(j, 0);
+            }
+        }
+        if (outputDoubles != null) {
+            for (int i = 0; i < outputDoubles.size(); i++) {
+                DoubleBuffer buffer = outputDoubles.get(i);
+                for (int j = 0, size = buffer.capacity(); j < size; j++) {
+                    buffer.put(j, 0);
+                }
+            }
+        }
+        if (interleavedClient != null) {
+            Arrays.fill(outputFloatBuffer, 0);
+        }
+    }
+
+    private void interleaveOutput() {
+        int channels = outputLine.getFormat().getChannels();
         for (int channel = 0; channel < channels; channel++) {
             FloatBuffer outBuf = outputBuffers.get(channel);
             float out;
-            float[] output = outBuf.array();
-            for (int i = 0, x = channel; i < output.length; i++) {
-                out = output[i];
-                out = out < -1 ? -1 : out > 1 ? 1 : out;
-                outputFloatBuffer[x] = out;
-                x += channels;
+            if (channelState != null && channelState.isOutputSilent(channel)) {
+                for (int i = 0, x = channel; i < bufferSize; i++) {
+                    outputFloatBuffer[x] = 0;
+                    x += channels;
+                }
+            } else if (outBuf.hasArray()) {
+                float[] output = outBuf.array();
+                for (int i = 0, x = channel; i < output.length; i++) {
+                    out = output[i];
+                    out = out < -1 ? -1 : out > 1 ? 1 : out;
+                    outputFloatBuffer[x] = out;
+                    x += channels;
+                }
+            } else {
+                int size = outBuf.capacity();
+                for (int i = 0, x = channel; i < size; i++) {
+                    out = outBuf.get(i);
+                    out = out < -1 ? -1 : out > 1 ? 1 : out;
+                    outputFloatBuffer[x] = out;
+                    x += channels;
+                }
             }
             outBuf.rewind();
         }
-        // convert audio
-        converter.toByteArray(outputFloatBuffer, outputByteBuffer);
-        // write to output
-        outputLine.write(outputByteBuffer, 0, outputByteBuffer.length);
-
     }
 
     private void closeAll() {
@@ -345,6 +1287,14 @@ public class JSAudioServer implements AudioServer {
         if (sdl != null) {
             sdl.close();
         }
+        AggregateOutput[] outputs = aggregateOutputs;
+        if (outputs != null) {
+            for (AggregateOutput output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
         TargetDataLine tdl = inputLine;
         if (tdl != null) {
             tdl.close();
@@ -32,22 +32,25 @@
  */
 package org.jaudiolibs.audioservers.javasound;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.Line;
 import javax.sound.sampled.Mixer;
 import org.jaudiolibs.audioservers.AudioClient;
 import org.jaudiolibs.audioservers.AudioConfiguration;
 import org.jaudiolibs.audioservers.AudioServer;
 import org.jaudiolibs.audioservers.AudioServerProvider;
+import org.jaudiolibs.audioservers.ext.AudioClock;
+import org.jaudiolibs.audioservers.ext.ChannelRouting;
+import org.jaudiolibs.audioservers.ext.ClientBlockSize;
 import org.jaudiolibs.audioservers.ext.Device;
+import org.jaudiolibs.audioservers.ext.MeasuredLatency;
+import org.jaudiolibs.audioservers.ext.Pipelining;
+import org.jaudiolibs.audioservers.ext.ProcessingLoad;
+import org.jaudiolibs.audioservers.ext.Watchdog;
 
 /**
  * JavaSound implementation of AudioServerProvider.
@@ -55,6 +58,21 @@ import org.jaudiolibs.audioservers.ext.Device;
 public class JSAudioServerProvider extends AudioServerProvider {
 
     private final static Logger LOG = Logger.getLogger(JSAudioServerProvider.class.getName());
+    private final static DeviceCache DEVICES = new DeviceCache();
+    // extensions passed through to the server if present in the configuration
+    private final static Class<?>[] OPTIONAL_EXTENSIONS = {
+        JSResamplerQuality.class,
+        ChannelRouting.class,
+        ClientBlockSize.class,
+        JSAggregate.class,
+        JSWarmup.class,
+        JSIdlePolicy.class,
+        AudioClock.class,
+        MeasuredLatency.class,
+        Watchdog.class,
+        ProcessingLoad.class,
+        JSCapabilityCache.class
+    };
 
     @Override
     public <T> T find(Class<T> type) {
@@ -69,7 +87,7 @@ public class JSAudioServerProvider extends AudioServerProvider {
     @Override
     public <T> Iterable<T> findAll(Class<T> type) {
         if (type.isAssignableFrom(Device.class)) {
-            return (Iterable<T>) findDevices();
+            return (Iterable<T>) DEVICES.getDevices();
         } else {
             return Collections.emptyList();
         }
@@ -97,12 +115,21 @@ public class JSAudioServerProvider extends AudioServerProvider {
             exts.add(outputDevice);
         }
         exts.add(timingMode);
+        exts.add(findPipelining(config));
+        exts.add(findBufferType(config));
+        for (Class<?> type : OPTIONAL_EXTENSIONS) {
+            Object ext = config.find(type);
+            if (ext != null) {
+                exts.add(ext);
+            }
+        }
 
         config = new AudioConfiguration(
                 config.getSampleRate(),
                 config.getInputChannelCount(),
                 config.getOutputChannelCount(),
                 config.getMaxBufferSize(),
+                config.isFixedBufferSize(),
                 exts.toArray());
 
         if (LOG.isLoggable(Level.FINE)) {
@@ -117,6 +144,96 @@ public class JSAudioServerProvider extends AudioServerProvider {
         return new JSAudioServer(inputMixer, outputMixer, timingMode, config, client);
     }
 
+    /**
+     * Find the supported configuration closest to the provided one by probing
+     * the lines of the requested devices. If the requested channel count is
+     * not supported, stereo and then mono are tried, unless the count is fixed
+     * by ChannelRouting. The sample rate is changed to the closest rate supported
+     * by both lines, unless JSResamplerQuality is requested, in which case the
+     * server will resample instead. The buffer size is reduced to fit the
+     * maximum line buffer. Probing results are cached - see
+     * {@link JSCapabilityCache}.
+     *
+     * @param config requested configuration
+     * @return closest supported configuration, or null
+     */
+    @Override
+    public AudioConfiguration findClosestConfiguration(AudioConfiguration config) {
+        Device inputDevice = findInputDevice(config);
+        Mixer inputMixer = inputDevice == null ? null : inputDevice.find(Mixer.class);
+        Device outputDevice = findOutputDevice(config);
+        Mixer outputMixer = outputDevice == null ? null : outputDevice.find(Mixer.class);
+        JSCapabilityCache capabilityCache = config.find(JSCapabilityCache.class);
+        Path store = capabilityCache == null ? null : capabilityCache.getFile();
+        ChannelRouting routing = config.find(ChannelRouting.class);
+        JSAggregate aggregate = config.find(JSAggregate.class);
+        boolean resampling = config.find(JSResamplerQuality.class) != null;
+
+        int inputs = config.getInputChannelCount();
+        int outputs = config.getOutputChannelCount();
+        int deviceInputs = routing == null ? inputs : routing.getDeviceInputChannelCount();
+        int deviceOutputs = routing == null ? outputs : routing.getDeviceOutputChannelCount();
+        int secondary = 0;
+        if (aggregate != null) {
+            if (routing != null) {
+                return null;
+            }
+            secondary = aggregate.getSecondaryChannelCount();
+            deviceOutputs -= secondary;
+            if (deviceOutputs < 1) {
+                return null;
+            }
+        }
+        if (deviceInputs == 0 && deviceOutputs == 0) {
+            return null;
+        }
+        LineCapabilities in = null;
+        LineCapabilities out = null;
+        if (deviceInputs > 0) {
+            int max = routing == null && inputDevice != null
+                    ? inputDevice.getMaxInputChannels() : deviceInputs;
+            in = LineCapabilities.findClosest(inputMixer, false, deviceInputs, max, store);
+            if (in == null || (routing != null && in.getChannels() != deviceInputs)) {
+                return null;
+            }
+            inputs = routing == null ? in.getChannels() : inputs;
+        }
+        if (deviceOutputs > 0) {
+            int max = routing == null && outputDevice != null
+                    ? outputDevice.getMaxOutputChannels() - secondary : deviceOutputs;
+            out = LineCapabilities.findClosest(outputMixer, true, deviceOutputs, max, store);
+            if (out == null || (routing != null && out.getChannels() != deviceOutputs)) {
+                return null;
+            }
+            outputs = routing == null ? out.getChannels() + secondary : outputs;
+        }
+
+        float rate = config.getSampleRate();
+        if (!resampling) {
+            rate = in == null ? out.closestRate(rate, null) : in.closestRate(rate, out);
+            if (rate < 0) {
+                return null;
+            }
+        }
+        int bufferSize = config.getMaxBufferSize();
+        bufferSize = fitBuffer(bufferSize, in);
+        bufferSize = fitBuffer(bufferSize, out);
+
+        ArrayList<Object> exts = new ArrayList<>();
+        for (Object ext : config.findAll(Object.class)) {
+            exts.add(ext);
+        }
+        return new AudioConfiguration(rate, inputs, outputs, bufferSize,
+                config.isFixedBufferSize(), exts.toArray());
+    }
+
+    private static int fitBuffer(int bufferSize, LineCapabilities caps) {
+        if (caps == null || caps.getMaxBufferFrames() < 1) {
+            return bufferSize;
+        }
+        return Math.min(bufferSize, caps.getMaxBufferFrames());
+    }
+
     private static Device findInputDevice(AudioConfiguration config) {
         for (Device dev : config.findAll(Device.class)) {
             if (dev.getMaxInputChannels() > 0) {
@@ -150,41 +267,21 @@ public class JSAudioServerProvider extends AudioServerProvider {
         }
     }
 
-    private static List<Device> findDevices() {
-        Mixer.Info[] mixerInfos = AudioSystem.getMixerInfo();
-        if (mixerInfos.length == 0) {
-            return Collections.emptyList();
+    private static JSBufferType findBufferType(AudioConfiguration config) {
+        JSBufferType type = config.find(JSBufferType.class);
+        if (type == null) {
+            return JSBufferType.Heap;
+        } else {
+            return type;
         }
-        List<Device> devices = new ArrayList<>(mixerInfos.length);
-        for (Mixer.Info info : mixerInfos) {
-            Mixer mixer = AudioSystem.getMixer(info);
-            int ins = getMaximumChannels(mixer, true);
-            int outs = getMaximumChannels(mixer, false);
-            // @TODO what about port mixers?
-//            if (ins == 0 && outs == 0) {
-//                continue;
-//            }
-            devices.add(new JSDevice(mixer, ins, outs));
-        }
-        return devices;
     }
 
-    private static int getMaximumChannels(Mixer mixer, boolean input) {
-        int max = 0;
-        Line.Info[] lines = input ? mixer.getTargetLineInfo() : mixer.getSourceLineInfo();
-        for (Line.Info line : lines) {
-            if (line instanceof DataLine.Info) {
-                AudioFormat[] formats = ((DataLine.Info) line).getFormats();
-                for (AudioFormat format : formats) {
-                    int channels = format.getChannels();
-                    if (channels == AudioSystem.NOT_SPECIFIED) {
-                        max = 32;
-                    } else if (channels > max) {
-                        max = channels;
-                    }
-                }
-            }
+    private static Pipelining findPipelining(AudioConfiguration config) {
+        Pipelining pipelining = config.find(Pipelining.class);
+        if (pipelining == null) {
+            return Pipelining.NONE;
+        } else {
+            return pipelining;
         }
-        return max;
     }
 }
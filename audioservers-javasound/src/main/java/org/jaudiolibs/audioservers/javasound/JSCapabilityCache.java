@@ -0,0 +1,80 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.file.Path;
+
+/**
+ * Extension to store probed line capabilities on disk. Probing which sample
+ * rates and channel counts a mixer supports requires opening lines, which can
+ * be slow. Results are always cached in memory for the lifetime of the
+ * process. Including a JSCapabilityCache in the AudioConfiguration passed to
+ * the provider also loads results from, and saves new results to, the given
+ * file, so that later processes can skip probing.
+ *
+ * Results are keyed by mixer name, vendor, description and version.
+ * Results from a probe that could not open a line, eg. because the device
+ * was busy, are not saved.
+ */
+public final class JSCapabilityCache {
+
+    private final Path file;
+
+    /**
+     * Store capabilities in the given file.
+     *
+     * @param file cache file
+     */
+    public JSCapabilityCache(Path file) {
+        if (file == null) {
+            throw new NullPointerException();
+        }
+        this.file = file;
+    }
+
+    /**
+     * The cache file.
+     *
+     * @return file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "JSCapabilityCache (" + file + ")";
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Extension to allow the server to suspend normal processing while the client
+ * output is silent. The client reports silence by flagging all of its outputs
+ * silent in the {@link org.jaudiolibs.audioservers.ext.ChannelState}. Once
+ * output has been silent for the timeout, the server drops to a low-rate
+ * heartbeat - the device lines are stopped, and the client is called once per
+ * heartbeat so that it can start producing output again.
+ * <p>
+ * A client (or any other thread) can also call {@link #wake()} to return the
+ * server to normal processing immediately. Calling wake() while the server is
+ * not idle restarts the timeout. The policy is included in the
+ * AudioConfiguration passed to the client, and may only be used with one
+ * server at a time.
+ * <p>
+ * Silence is only seen if the flags reach the server. A client wrapping
+ * another client that resolves the output flags itself must flag all outputs
+ * silent again when they all were - see
+ * {@link org.jaudiolibs.audioservers.ext.ChannelState#setAllOutputsSilent()}.
+ * The wrapping clients in this library already do so.
+ * <p>
+ * Input received while idle is discarded. The idle policy is ignored if the
+ * server cannot provide a ChannelState, or if there is no output line or an
+ * aggregate device is in use.
+ */
+public final class JSIdlePolicy {
+
+    private final static int DEFAULT_HEARTBEAT = 100;
+
+    private final int timeout;
+    private final int heartbeat;
+    private final AtomicBoolean wake;
+
+    private volatile Thread server;
+    private volatile boolean idle;
+
+    /**
+     * Create an idle policy with the default heartbeat of 100ms.
+     *
+     * @param timeoutMillis milliseconds of silence before going idle
+     */
+    public JSIdlePolicy(int timeoutMillis) {
+        this(timeoutMillis, DEFAULT_HEARTBEAT);
+    }
+
+    /**
+     * Create an idle policy. The heartbeat sets how quickly the server reacts
+     * to the client output becoming non-silent without a call to wake().
+     *
+     * @param timeoutMillis milliseconds of silence before going idle
+     * @param heartbeatMillis milliseconds between cycles while idle
+     */
+    public JSIdlePolicy(int timeoutMillis, int heartbeatMillis) {
+        if (timeoutMillis < 0 || heartbeatMillis < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.timeout = timeoutMillis;
+        this.heartbeat = heartbeatMillis;
+        this.wake = new AtomicBoolean();
+    }
+
+    /**
+     * Milliseconds of silence before the server goes idle.
+     *
+     * @return timeout in milliseconds
+     */
+    public int getTimeoutMillis() {
+        return timeout;
+    }
+
+    /**
+     * Milliseconds between cycles while idle.
+     *
+     * @return heartbeat in milliseconds
+     */
+    public int getHeartbeatMillis() {
+        return heartbeat;
+    }
+
+    /**
+     * Whether the server is currently idle.
+     *
+     * @return idle
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Return the server to normal processing. This method is lock-free and
+     * may be called from any thread, including the audio thread.
+     */
+    public void wake() {
+        wake.set(true);
+        Thread t = server;
+        if (t != null && idle) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    void attach(Thread thread) {
+        wake.set(false);
+        server = thread;
+    }
+
+    void detach() {
+        server = null;
+        idle = false;
+    }
+
+    void setIdle(boolean idle) {
+        this.idle = idle;
+    }
+
+    boolean consumeWake() {
+        return wake.get() && wake.getAndSet(false);
+    }
+
+    @Override
+    public String toString() {
+        return "JSIdlePolicy (timeout " + timeout + "ms, heartbeat " + heartbeat + "ms)";
+    }
+
+}
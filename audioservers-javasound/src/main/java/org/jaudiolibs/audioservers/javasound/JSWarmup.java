@@ -0,0 +1,100 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+/**
+ * Extension to request a warm-up stage before the device lines are started.
+ * The server runs its full processing path - the client's process() method
+ * along with the server's own conversion, interleaving and resampling - on
+ * silent input for a number of cycles, discarding the output. This gives the
+ * JIT compiler a chance to compile the hot path before the device is live,
+ * avoiding dropouts in the first seconds of running.
+ *
+ * Warm-up cycles are not paced, and the client sees them as normal cycles
+ * with silent input.
+ */
+public final class JSWarmup {
+
+    private final int cycles;
+    private final boolean untilSettled;
+
+    /**
+     * Run a fixed number of warm-up cycles.
+     *
+     * @param cycles number of cycles
+     */
+    public JSWarmup(int cycles) {
+        this(cycles, false);
+    }
+
+    /**
+     * Run warm-up cycles, optionally stopping early once JIT compilation has
+     * settled, as reported by the CompilationMXBean. Where compilation time
+     * monitoring is not supported, the maximum number of cycles are run.
+     *
+     * @param maxCycles maximum number of cycles
+     * @param untilSettled stop once compilation settles
+     */
+    public JSWarmup(int maxCycles, boolean untilSettled) {
+        if (maxCycles < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.cycles = maxCycles;
+        this.untilSettled = untilSettled;
+    }
+
+    /**
+     * The maximum number of warm-up cycles.
+     *
+     * @return cycles
+     */
+    public int getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Whether warm-up stops once compilation settles.
+     *
+     * @return stop when settled
+     */
+    public boolean isUntilSettled() {
+        return untilSettled;
+    }
+
+    @Override
+    public String toString() {
+        return "JSWarmup (" + cycles + (untilSettled ? " cycles, until settled)" : " cycles)");
+    }
+
+}
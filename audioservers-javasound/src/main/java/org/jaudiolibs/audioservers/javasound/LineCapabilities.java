@@ -0,0 +1,360 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Sample rates and buffer size supported by the lines of a mixer, for one
+ * direction and channel count, in the line format used by JSAudioServer.
+ * A rate is only treated as supported if a line can actually be opened at
+ * it, as many mixers report support for unspecified rates. Results are cached
+ * in memory, and optionally in a file - see {@link JSCapabilityCache}.
+ */
+class LineCapabilities {
+
+    private final static Logger LOG = Logger.getLogger(LineCapabilities.class.getName());
+
+    private final static float[] PROBE_RATES = {8000, 11025, 16000, 22050,
+        32000, 44100, 48000, 88200, 96000, 176400, 192000};
+    // line format used by JSAudioServer
+    private final static int BIT_SIZE = 16;
+    private final static boolean SIGNED = true;
+    private final static boolean BIG_ENDIAN = false;
+    private final static String DEFAULT_MIXER = "default";
+
+    private final static Map<String, LineCapabilities> CACHE = new ConcurrentHashMap<>();
+    private final static Set<Path> LOADED = ConcurrentHashMap.newKeySet();
+
+    private final int channels;
+    private final float[] rates;
+    private final int maxBufferFrames;
+    private final boolean complete;
+
+    private LineCapabilities(int channels, float[] rates, int maxBufferFrames,
+            boolean complete) {
+        this.channels = channels;
+        this.rates = rates;
+        this.maxBufferFrames = maxBufferFrames;
+        this.complete = complete;
+    }
+
+    /**
+     * Channel count these capabilities apply to.
+     */
+    int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Whether any rate is supported.
+     */
+    boolean isSupported() {
+        return rates.length > 0;
+    }
+
+    boolean isRateSupported(float rate) {
+        for (float r : rates) {
+            if (r == rate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rate closest to the given rate that is supported here and by the other
+     * capabilities if not null, preferring the higher rate if two are as
+     * close, or -1 if no rate is supported.
+     */
+    float closestRate(float rate, LineCapabilities other) {
+        float closest = -1;
+        for (float r : rates) {
+            if ((other == null || other.isRateSupported(r))
+                    && (closest < 0 || Math.abs(r - rate) <= Math.abs(closest - rate))) {
+                closest = r;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Maximum buffer size in frames, or AudioSystem.NOT_SPECIFIED.
+     */
+    int getMaxBufferFrames() {
+        return maxBufferFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "LineCapabilities (" + channels + " channels, rates "
+                + Arrays.toString(rates) + ", max buffer " + maxBufferFrames + ")";
+    }
+
+    /**
+     * Find the capabilities for the given mixer, direction and channel count,
+     * probing if they are not cached.
+     *
+     * @param mixer mixer, or null for the default
+     * @param output true for source lines
+     * @param channels channel count
+     * @param store cache file, or null
+     * @return capabilities
+     */
+    static LineCapabilities find(Mixer mixer, boolean output, int channels, Path store) {
+        LineCapabilities caps = cached(mixer, output, channels, store);
+        if (caps == null) {
+            caps = probe(mixer, output, channels);
+            LOG.log(Level.FINE, "Probed {0}", caps);
+            if (caps.complete) {
+                // results of a probe that could not open lines are not kept
+                CACHE.put(key(mixer, output, channels), caps);
+                if (store != null) {
+                    save(store);
+                }
+            }
+        }
+        return caps;
+    }
+
+    /**
+     * Find the supported capabilities for the given channel count or, if that
+     * is not supported, for stereo or mono. Only these counts are probed, as
+     * each probe opens a line per rate.
+     *
+     * @param mixer mixer, or null for the default
+     * @param output true for source lines
+     * @param channels requested channel count
+     * @param maxChannels maximum channel count to try
+     * @param store cache file, or null
+     * @return capabilities, or null if none of the channel counts is supported
+     */
+    static LineCapabilities findClosest(Mixer mixer, boolean output,
+            int channels, int maxChannels, Path store) {
+        int[] candidates = channels == 1 ? new int[]{1, 2}
+                : channels == 2 ? new int[]{2, 1} : new int[]{channels, 2, 1};
+        for (int c : candidates) {
+            if (c != channels && c > maxChannels) {
+                continue;
+            }
+            LineCapabilities caps = find(mixer, output, c, store);
+            if (caps.isSupported()) {
+                return caps;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the capabilities for the given mixer, direction and channel count
+     * without probing.
+     *
+     * @param mixer mixer, or null for the default
+     * @param output true for source lines
+     * @param channels channel count
+     * @param store cache file, or null
+     * @return capabilities, or null if not cached
+     */
+    static LineCapabilities cached(Mixer mixer, boolean output, int channels, Path store) {
+        if (store != null && !LOADED.contains(store)) {
+            load(store);
+        }
+        return CACHE.get(key(mixer, output, channels));
+    }
+
+    private static LineCapabilities probe(Mixer mixer, boolean output, int channels) {
+        Class<? extends DataLine> type = output ? SourceDataLine.class : TargetDataLine.class;
+        float[] supported = new float[PROBE_RATES.length];
+        int count = 0;
+        boolean unavailable = false;
+        for (float rate : PROBE_RATES) {
+            AudioFormat format = new AudioFormat(rate, BIT_SIZE, channels, SIGNED, BIG_ENDIAN);
+            DataLine.Info info = new DataLine.Info(type, format);
+            try {
+                boolean listed = mixer == null ? AudioSystem.isLineSupported(info)
+                        : mixer.isLineSupported(info);
+                if (!listed) {
+                    continue;
+                }
+                DataLine line = (DataLine) (mixer == null ? AudioSystem.getLine(info)
+                        : mixer.getLine(info));
+                try {
+                    if (line instanceof SourceDataLine) {
+                        ((SourceDataLine) line).open(format);
+                    } else {
+                        ((TargetDataLine) line).open(format);
+                    }
+                    supported[count++] = rate;
+                } finally {
+                    line.close();
+                }
+            } catch (IllegalArgumentException ex) {
+                // not supported
+            } catch (LineUnavailableException ex) {
+                unavailable = true;
+            }
+        }
+        // some mixers report unsupported formats as unavailable, but if no
+        // line could be opened at all the device may just be busy
+        return new LineCapabilities(channels, Arrays.copyOf(supported, count),
+                maxBufferFrames(mixer, type, channels), !unavailable || count > 0);
+    }
+
+    private static int maxBufferFrames(Mixer mixer, Class<? extends DataLine> type,
+            int channels) {
+        Line.Info request = new Line.Info(type);
+        Line.Info[] infos;
+        if (mixer == null) {
+            infos = type == SourceDataLine.class ? AudioSystem.getSourceLineInfo(request)
+                    : AudioSystem.getTargetLineInfo(request);
+        } else {
+            infos = type == SourceDataLine.class ? mixer.getSourceLineInfo(request)
+                    : mixer.getTargetLineInfo(request);
+        }
+        int max = AudioSystem.NOT_SPECIFIED;
+        for (Line.Info info : infos) {
+            if (info instanceof DataLine.Info) {
+                int bytes = ((DataLine.Info) info).getMaxBufferSize();
+                if (bytes == AudioSystem.NOT_SPECIFIED) {
+                    return AudioSystem.NOT_SPECIFIED;
+                }
+                max = Math.max(max, bytes);
+            }
+        }
+        return max == AudioSystem.NOT_SPECIFIED ? max
+                : max / (channels * BIT_SIZE / 8);
+    }
+
+    private static String key(Mixer mixer, boolean output, int channels) {
+        String mixerKey = mixer == null ? DEFAULT_MIXER
+                : DeviceCache.key(mixer.getMixerInfo());
+        return mixerKey + '|' + (output ? "out" : "in") + '|' + channels;
+    }
+
+    private static synchronized void load(Path store) {
+        if (!LOADED.add(store)) {
+            return;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(store)) {
+            props.load(in);
+        } catch (NoSuchFileException ex) {
+            return;
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to load capabilities from " + store, ex);
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            LineCapabilities caps = parse(key, props.getProperty(key));
+            if (caps != null) {
+                CACHE.putIfAbsent(key, caps);
+            }
+        }
+    }
+
+    private static synchronized void save(Path store) {
+        Properties props = new Properties();
+        for (Map.Entry<String, LineCapabilities> entry : CACHE.entrySet()) {
+            props.setProperty(entry.getKey(), format(entry.getValue()));
+        }
+        try {
+            Path parent = store.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = Files.createTempFile(parent, "capabilities", ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, "JavaSound line capabilities");
+            }
+            Files.move(tmp, store, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to save capabilities to " + store, ex);
+        }
+    }
+
+    private static String format(LineCapabilities caps) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < caps.rates.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(caps.rates[i]);
+        }
+        sb.append('/').append(caps.maxBufferFrames);
+        return sb.toString();
+    }
+
+    private static LineCapabilities parse(String key, String value) {
+        try {
+            int channels = Integer.parseInt(key.substring(key.lastIndexOf('|') + 1));
+            int slash = value.indexOf('/');
+            String[] parts = value.substring(0, slash).split(",");
+            float[] rates = new float[parts.length];
+            int count = 0;
+            for (String part : parts) {
+                if (!part.isEmpty()) {
+                    rates[count++] = Float.parseFloat(part);
+                }
+            }
+            int maxBufferFrames = Integer.parseInt(value.substring(slash + 1));
+            return new LineCapabilities(channels, Arrays.copyOf(rates, count),
+                    maxBufferFrames, true);
+        } catch (RuntimeException ex) {
+            LOG.log(Level.FINE, "Ignoring cached capabilities " + key, ex);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.SourceDataLine;
+import org.jaudiolibs.audioservers.ext.Watchdog;
+
+/**
+ * Monitors the device thread while it is inside the client, and writes
+ * substitute audio to the output line once each deadline passes. The device
+ * thread and the monitor hand ownership of the line to each other through an
+ * atomic state, so only one of them writes at a time. Output the client
+ * produces after a miss is discarded by the device thread, as the monitor has
+ * already covered that cycle.
+ */
+class OutputWatchdog {
+
+    private final static Logger LOG = Logger.getLogger(OutputWatchdog.class.getName());
+
+    private final static int IDLE = 0;
+    private final static int PROCESSING = 1;
+    private final static int SUBSTITUTING = 2;
+    private final static int SUBSTITUTED = 3;
+
+    private final Watchdog watchdog;
+    private final SourceDataLine line;
+    private final int frameSize;
+    private final long periodNanos;
+    private final long deadlineNanos;
+    private final long pollNanos;
+    private final byte[] silence;
+    private final byte[] lastGood;
+    private final AtomicInteger state;
+
+    private volatile boolean running;
+    private volatile long deadline;
+    private Thread monitor;
+    private int lastGoodLength;
+    private int blocks;
+
+    /**
+     * Create an OutputWatchdog.
+     *
+     * @param watchdog watchdog extension to configure from and report to
+     * @param line output line
+     * @param blockBytes maximum bytes written to the line per cycle
+     * @param periodNanos cycle period in nanoseconds
+     */
+    OutputWatchdog(Watchdog watchdog, SourceDataLine line, int blockBytes,
+            long periodNanos) {
+        this.watchdog = watchdog;
+        this.line = line;
+        this.frameSize = line.getFormat().getFrameSize();
+        this.periodNanos = periodNanos;
+        this.deadlineNanos = (long) (watchdog.getDeadline() * periodNanos);
+        this.pollNanos = Math.max(periodNanos / 8, 100000);
+        this.silence = new byte[blockBytes];
+        this.lastGood = watchdog.getSubstitution() == Watchdog.Substitution.LAST_GOOD
+                ? new byte[blockBytes] : null;
+        this.state = new AtomicInteger(IDLE);
+    }
+
+    void start() {
+        running = true;
+        monitor = new Thread(this::run, "JSAudioServer Watchdog");
+        monitor.setPriority(Thread.MAX_PRIORITY);
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    void stop() {
+        running = false;
+        Thread m = monitor;
+        monitor = null;
+        if (m != null) {
+            LockSupport.unpark(m);
+            try {
+                m.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called by the device thread before calling the client.
+     *
+     * @param cycleStart start time of the cycle
+     */
+    void enter(long cycleStart) {
+        deadline = cycleStart + deadlineNanos;
+        state.set(PROCESSING);
+    }
+
+    /**
+     * Called by the device thread after the client returns. Waits for the
+     * monitor to finish any write in progress.
+     *
+     * @return number of cycles substituted, or zero if the client was in time
+     */
+    int exit() {
+        while (true) {
+            if (state.compareAndSet(PROCESSING, IDLE)) {
+                return 0;
+            }
+            if (state.compareAndSet(SUBSTITUTED, IDLE)) {
+                return blocks;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Called by the device thread after writing client output in time, to
+     * keep a copy for substitution.
+     *
+     * @param data output data
+     * @param length length in bytes
+     */
+    void written(byte[] data, int length) {
+        if (lastGood != null) {
+            System.arraycopy(data, 0, lastGood, 0, length);
+            lastGoodLength = length;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(pollNanos);
+            int s = state.get();
+            if ((s != PROCESSING && s != SUBSTITUTED)
+                    || System.nanoTime() - deadline < 0
+                    || !state.compareAndSet(s, SUBSTITUTING)) {
+                continue;
+            }
+            boolean first = s == PROCESSING;
+            if (first) {
+                blocks = 0;
+            }
+            if (first && lastGood != null && lastGoodLength > 0) {
+                substitute(lastGood, lastGoodLength);
+            } else {
+                substitute(silence, silence.length);
+            }
+            blocks++;
+            deadline += periodNanos;
+            state.set(SUBSTITUTED);
+            if (first) {
+                // record after handing the line back
+                if (watchdog.miss()) {
+                    LOG.log(Level.WARNING, "Client missed deadline - bypassing after {0} misses",
+                            watchdog.getMissCount());
+                } else {
+                    LOG.log(Level.WARNING, "Client missed deadline - {0} misses",
+                            watchdog.getMissCount());
+                }
+            }
+        }
+    }
+
+    private void substitute(byte[] data, int length) {
+        // never block - the line may still hold enough audio
+        int space = line.available() / frameSize * frameSize;
+        int len = Math.min(space, length);
+        if (len > 0) {
+            line.write(data, 0, len);
+        }
+    }
+
+}
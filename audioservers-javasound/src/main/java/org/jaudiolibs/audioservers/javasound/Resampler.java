@@ -0,0 +1,290 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.util.Arrays;
+
+/**
+ * Streaming windowed-sinc polyphase sample rate converter for interleaved
+ * audio.
+ *
+ * Filter coefficients are precomputed for a fixed number of phases between
+ * input samples. Each output sample is calculated from the two nearest phases,
+ * and the results interpolated. Input is stored per channel so that the inner
+ * loop is a contiguous dot product, unrolled with independent accumulators.
+ *
+ * All buffers are allocated on construction. Input is added with write() and
+ * output taken with read(). The ratio may be adjusted while running with
+ * {@link #setRatio(double)}, eg. for drift compensation.
+ */
+class Resampler {
+
+    private final int channels;
+    private final int taps;
+    private final int phases;
+    private final float[] coefficients;
+    private final float[][] buffers;
+    private final int capacity;
+
+    private double ratio;
+    private double position;
+    private int count;
+
+    /**
+     * Create a Resampler.
+     *
+     * @param channels number of interleaved channels
+     * @param inputRate input sample rate
+     * @param outputRate output sample rate
+     * @param maxInputFrames maximum number of frames passed to write()
+     * @param quality filter quality
+     */
+    Resampler(int channels, double inputRate, double outputRate,
+            int maxInputFrames, JSResamplerQuality quality) {
+        this.channels = channels;
+        this.taps = quality.taps;
+        this.phases = quality.phases;
+        this.ratio = inputRate / outputRate;
+        double cutoff = Math.min(1, outputRate / inputRate) * quality.rolloff;
+        coefficients = createTable(taps, phases, cutoff, quality.beta);
+        // allow for slower than nominal consumption when drift compensating
+        capacity = 2 * (taps + maxInputFrames) + 16;
+        buffers = new float[channels][capacity];
+        reset();
+    }
+
+    /**
+     * Clear all buffered input and restart with the nominal latency.
+     */
+    final void reset() {
+        for (float[] buffer : buffers) {
+            Arrays.fill(buffer, 0);
+        }
+        count = taps / 2 - 1;
+        position = count;
+    }
+
+    /**
+     * Set the ratio of input frames consumed to output frames produced.
+     *
+     * @param ratio input rate / output rate
+     */
+    void setRatio(double ratio) {
+        this.ratio = ratio;
+    }
+
+    /**
+     * Get the ratio of input frames consumed to output frames produced.
+     *
+     * @return input rate / output rate
+     */
+    double getRatio() {
+        return ratio;
+    }
+
+    /**
+     * Get the delay introduced by the filter.
+     *
+     * @return latency in input frames
+     */
+    int getLatency() {
+        return taps / 2;
+    }
+
+    /**
+     * Get the number of input frames currently buffered beyond the position of
+     * the next output frame.
+     *
+     * @return buffered frames
+     */
+    double getBufferedFrames() {
+        return count - position;
+    }
+
+    /**
+     * The number of input frames that must be written before the given number
+     * of output frames can be read.
+     *
+     * @param outputFrames frames required
+     * @return input frames required ( >=0 )
+     */
+    int required(int outputFrames) {
+        if (outputFrames < 1) {
+            return 0;
+        }
+        double last = position + (outputFrames - 1) * ratio;
+        // one extra frame guards against rounding in the accumulated position
+        int needed = (int) last + taps / 2 + 2;
+        return Math.max(0, needed - count);
+    }
+
+    /**
+     * The number of output frames that can be read with the input currently
+     * buffered.
+     *
+     * @return available frames
+     */
+    int available() {
+        double space = (count - taps / 2 - position) / ratio;
+        if (space <= 0) {
+            return 0;
+        }
+        return (int) Math.ceil(space);
+    }
+
+    /**
+     * Add interleaved input.
+     *
+     * @param input interleaved input
+     * @param offset offset in frames
+     * @param frames number of frames
+     */
+    void write(float[] input, int offset, int frames) {
+        if (count + frames > capacity) {
+            compact();
+            if (count + frames > capacity) {
+                throw new IllegalStateException("Resampler buffer overflow");
+            }
+        }
+        int chs = channels;
+        for (int ch = 0; ch < chs; ch++) {
+            float[] buffer = buffers[ch];
+            for (int i = 0, x = offset * chs + ch; i < frames; i++) {
+                buffer[count + i] = input[x];
+                x += chs;
+            }
+        }
+        count += frames;
+    }
+
+    /**
+     * Read interleaved output.
+     *
+     * @param output interleaved output
+     * @param offset offset in frames
+     * @param frames maximum number of frames to read
+     * @return frames read
+     */
+    int read(float[] output, int offset, int frames) {
+        int n = Math.min(frames, available());
+        int chs = channels;
+        int half = taps / 2 - 1;
+        for (int i = 0; i < n; i++) {
+            int index = (int) position;
+            if (index + taps / 2 >= count) {
+                return i;
+            }
+            double phase = (position - index) * phases;
+            int p = (int) phase;
+            float frac = (float) (phase - p);
+            int c0 = p * taps;
+            int c1 = c0 + taps;
+            int start = index - half;
+            int x = (offset + i) * chs;
+            for (int ch = 0; ch < chs; ch++) {
+                float[] buffer = buffers[ch];
+                float a = dot(buffer, start, c0);
+                float b = dot(buffer, start, c1);
+                output[x + ch] = a + (b - a) * frac;
+            }
+            position += ratio;
+        }
+        return n;
+    }
+
+    private float dot(float[] buffer, int start, int coeff) {
+        float[] h = coefficients;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int k = 0; k < taps; k += 4) {
+            s0 += buffer[start + k] * h[coeff + k];
+            s1 += buffer[start + k + 1] * h[coeff + k + 1];
+            s2 += buffer[start + k + 2] * h[coeff + k + 2];
+            s3 += buffer[start + k + 3] * h[coeff + k + 3];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private void compact() {
+        int shift = (int) position - (taps / 2 - 1);
+        if (shift <= 0) {
+            return;
+        }
+        int remaining = count - shift;
+        for (float[] buffer : buffers) {
+            System.arraycopy(buffer, shift, buffer, 0, remaining);
+        }
+        count = remaining;
+        position -= shift;
+    }
+
+    private static float[] createTable(int taps, int phases, double cutoff, double beta) {
+        float[] table = new float[(phases + 1) * taps];
+        double half = taps / 2.0;
+        double i0beta = bessel(beta);
+        for (int p = 0; p <= phases; p++) {
+            double frac = (double) p / phases;
+            double sum = 0;
+            double[] h = new double[taps];
+            for (int k = 0; k < taps; k++) {
+                double t = k - (taps / 2 - 1) - frac;
+                double sinc = t == 0 ? 1 : Math.sin(Math.PI * cutoff * t) / (Math.PI * cutoff * t);
+                double w = t / half;
+                double window = Math.abs(w) >= 1 ? 0
+                        : bessel(beta * Math.sqrt(1 - w * w)) / i0beta;
+                h[k] = cutoff * sinc * window;
+                sum += h[k];
+            }
+            for (int k = 0; k < taps; k++) {
+                table[p * taps + k] = (float) (h[k] / sum);
+            }
+        }
+        return table;
+    }
+
+    private static double bessel(double x) {
+        // zeroth order modified Bessel function of the first kind
+        double sum = 1;
+        double term = 1;
+        double halfx = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfx / k) * (halfx / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.AudioServer;
+import org.jaudiolibs.audioservers.DoubleAudioClient;
+import org.jaudiolibs.audioservers.ext.ChannelRouting;
+import org.jaudiolibs.audioservers.ext.ClientBlockSize;
+import org.jaudiolibs.audioservers.ext.Pipelining;
+import org.jaudiolibs.audioservers.util.AllocationProbe;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs JSAudioServer on stub lines and checks that steady-state cycles do not
+ * allocate. Allocation is measured on the device thread between writes to the
+ * output line, covering the whole cycle, and where the client runs on another
+ * thread, between calls to the client using AllocationProbe.monitor().
+ * <p>
+ * Every cycle after warmup must allocate nothing. The line and monitor
+ * measure from the first cycle, so the measuring code is already compiled
+ * when warmup ends. The warmup is long enough for compilation to settle -
+ * while the JIT is still deoptimizing and recompiling hot methods the JVM
+ * itself can allocate on the device thread, seen up to around 10000 cycles
+ * with direct buffers.
+ */
+public class AllocationTest {
+
+    private final static int BUFFER_SIZE = 256;
+    private final static int WARMUP_CYCLES = 20000;
+    private final static int CYCLES = 5000;
+    private final static long TIMEOUT = 60000;
+
+    @Before
+    public void checkSupported() {
+        assumeTrue(AllocationProbe.isSupported());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void plain() throws Exception {
+        run(new StubMixer("plain"), new SineClient());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void direct() throws Exception {
+        run(new StubMixer("direct"), new SineClient(), JSBufferType.Direct);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void routed() throws Exception {
+        ChannelRouting routing = new ChannelRouting(2, 4)
+                .routeInput(1, 0, 1)
+                .routeOutput(0, 2, 0.5f)
+                .routeOutput(1, 3, 1);
+        run(new StubMixer("routed"), new SineClient(), routing);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void blockSize() throws Exception {
+        run(new StubMixer("blocks"), new SineClient(), new ClientBlockSize(64));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void pipelined() throws Exception {
+        run(new StubMixer("pipelined"), new SineClient(), Pipelining.DOUBLE_BUFFERED);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void doubled() throws Exception {
+        run(new StubMixer("double"), new SineDoubleClient());
+    }
+
+    private void run(StubMixer mixer, AudioClient client, Object... exts) throws Exception {
+        Object[] all = new Object[exts.length + 1];
+        all[0] = new JSDevice(mixer, 2, 4);
+        System.arraycopy(exts, 0, all, 1, exts.length);
+        AudioConfiguration config = new AudioConfiguration(48000, 2, 2, BUFFER_SIZE, all);
+        // monitor counts client calls, and can only wrap a float client
+        int calls = WARMUP_CYCLES;
+        for (Object ext : exts) {
+            if (ext instanceof ClientBlockSize) {
+                calls *= BUFFER_SIZE / ((ClientBlockSize) ext).getFrames();
+            }
+        }
+        AllocationProbe.Monitor monitor = client instanceof DoubleAudioClient
+                ? null : AllocationProbe.monitor(client, calls);
+        AudioServer server = new JSAudioServerProvider().createServer(config,
+                monitor == null ? client : monitor);
+        mixer.recordAllocation(WARMUP_CYCLES + CYCLES + 16);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        thread.start();
+        thread.join(TIMEOUT);
+        if (thread.isAlive()) {
+            server.shutdown();
+            fail("Server still running");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Server failed", failure.get());
+        }
+        StubLine out = mixer.getOutputLine();
+        assertNotNull("no output line", out);
+        assertTrue("cycles measured", out.getRecordedCycles(WARMUP_CYCLES) >= CYCLES / 2);
+        assertEquals("bytes allocated per cycle", 0, out.getMaxCycleBytes(WARMUP_CYCLES));
+        if (monitor != null) {
+            assertTrue(monitor.getMeasuredCycles() > 0);
+            assertEquals("bytes allocated around client", 0,
+                    monitor.getMaxServerAllocatedBytes());
+            assertEquals(0, monitor.getMaxClientAllocatedBytes());
+        }
+    }
+
+    private static class SineClient implements AudioClient {
+
+        private int calls;
+        private double phase;
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            for (int i = 0; i < nframes; i++) {
+                float value = (float) (0.5 * Math.sin(phase));
+                phase += 0.01;
+                for (int ch = 0; ch < outputs.size(); ch++) {
+                    outputs.get(ch).put(i, value + inputs.get(ch).get(i));
+                }
+            }
+            return ++calls < (WARMUP_CYCLES + CYCLES) * (BUFFER_SIZE / nframes);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    private static class SineDoubleClient extends SineClient implements DoubleAudioClient {
+
+        private int calls;
+        private double phase;
+
+        @Override
+        public boolean processDouble(long time, List<DoubleBuffer> inputs,
+                List<DoubleBuffer> outputs, int nframes) {
+            for (int i = 0; i < nframes; i++) {
+                double value = 0.5 * Math.sin(phase);
+                phase += 0.01;
+                for (int ch = 0; ch < outputs.size(); ch++) {
+                    outputs.get(ch).put(i, value + inputs.get(ch).get(i));
+                }
+            }
+            return ++calls < WARMUP_CYCLES + CYCLES;
+        }
+
+    }
+
+}
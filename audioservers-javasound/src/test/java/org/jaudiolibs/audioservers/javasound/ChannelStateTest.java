@@ -0,0 +1,184 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.AudioServer;
+import org.jaudiolibs.audioservers.ext.ChannelState;
+import org.jaudiolibs.audioservers.ext.ClientBlockSize;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelStateTest {
+
+    private final static int BUFFER_SIZE = 256;
+    private final static int BLOCK_SIZE = 64;
+    private final static int LEVEL = 8192;
+
+    @Test
+    public void silentBlockKeepsOtherBlocks() throws Exception {
+        StubMixer mixer = new StubMixer("stub");
+        AudioConfiguration config = new AudioConfiguration(48000, 2, 2, BUFFER_SIZE,
+                new JSDevice(mixer, 2, 2),
+                new ClientBlockSize(BLOCK_SIZE));
+        BlockClient client = new BlockClient(40);
+        AudioServer server = new JSAudioServerProvider().createServer(config, client);
+        server.run();
+        assertNotNull(client.state);
+        StubLine out = mixer.getOutputLine();
+        for (int frame = 0; frame < BUFFER_SIZE; frame++) {
+            int expected = frame / BLOCK_SIZE == 1 ? 0 : LEVEL;
+            // allow for rounding in conversion
+            assertEquals("frame " + frame, expected, out.getLastSample(frame, 0), 1);
+            assertEquals("frame " + frame, expected, out.getLastSample(frame, 1), 1);
+        }
+    }
+
+    /**
+     * Silence flagged in every block must still be visible to the server once
+     * the blocks have been resolved, so that the idle policy can see it.
+     */
+    @Test
+    public void silentBlocksKeepFlags() throws Exception {
+        ChannelState state = new ChannelState(0, 2);
+        List<FloatBuffer> inputs = Collections.emptyList();
+        List<FloatBuffer> outputs = Arrays.asList(
+                FloatBuffer.allocate(BUFFER_SIZE), FloatBuffer.allocate(BUFFER_SIZE));
+        FlagClient client = new FlagClient(state);
+        ClientBlocks blocks = new ClientBlocks(client, BLOCK_SIZE, BUFFER_SIZE, 48000, state);
+        blocks.register(inputs, outputs);
+
+        assertTrue(blocks.process(0, inputs, outputs, BUFFER_SIZE));
+        assertTrue(state.isAllOutputsSilent());
+
+        state.clearOutputs();
+        client.writeBlock = 2;
+        assertTrue(blocks.process(0, inputs, outputs, BUFFER_SIZE));
+        assertFalse(state.isAnyOutputSilent());
+    }
+
+    /**
+     * Flags all outputs silent in every block except writeBlock.
+     */
+    private static class FlagClient implements AudioClient {
+
+        private final ChannelState state;
+
+        private int writeBlock = -1;
+        private int calls;
+
+        private FlagClient(ChannelState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            if (calls++ % (BUFFER_SIZE / BLOCK_SIZE) == writeBlock) {
+                for (FloatBuffer output : outputs) {
+                    for (int i = 0; i < nframes; i++) {
+                        output.put(i, LEVEL / 32767f);
+                    }
+                }
+            } else {
+                state.setOutputSilent(0);
+                state.setOutputSilent(1);
+            }
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    /**
+     * Writes a constant level in every block except the second of each
+     * server buffer, which is only flagged as silent.
+     */
+    private static class BlockClient implements AudioClient {
+
+        private final int maxCalls;
+
+        private ChannelState state;
+        private int calls;
+
+        private BlockClient(int maxCalls) {
+            this.maxCalls = maxCalls;
+        }
+
+        @Override
+        public void configure(AudioConfiguration context) {
+            state = context.find(ChannelState.class);
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            int block = calls++ % (BUFFER_SIZE / BLOCK_SIZE);
+            if (block == 1) {
+                // leave stale data in the buffers - the flag must win
+                state.setOutputSilent(0);
+                state.setOutputSilent(1);
+            } else {
+                for (FloatBuffer output : outputs) {
+                    for (int i = 0; i < nframes; i++) {
+                        output.put(i, LEVEL / 32767f);
+                    }
+                }
+            }
+            return calls < maxCalls;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LineCapabilitiesTest {
+
+    private final static int RATES = 11;
+
+    @Test
+    public void closestFallsBackToStereo() {
+        ChannelMixer mixer = new ChannelMixer("stereo-only", 2);
+        LineCapabilities caps = LineCapabilities.findClosest(mixer, true, 6, 32, null);
+        assertEquals(2, caps.getChannels());
+        // 6 channels probed and rejected, then 2 channels opened at each rate
+        assertEquals(2 * RATES, mixer.requests);
+    }
+
+    @Test
+    public void closestProbesFewChannelCounts() {
+        ChannelMixer mixer = new ChannelMixer("eight-only", 8);
+        assertNull(LineCapabilities.findClosest(mixer, true, 6, 32, null));
+        // requested, stereo and mono only
+        assertTrue(mixer.requests <= 3 * RATES);
+    }
+
+    /**
+     * Mixer whose lines can only be opened with a single channel count.
+     */
+    private static class ChannelMixer extends StubMixer {
+
+        private final int channels;
+
+        private int requests;
+
+        private ChannelMixer(String name, int channels) {
+            super(name);
+            this.channels = channels;
+        }
+
+        @Override
+        public synchronized Line getLine(Line.Info info) {
+            requests++;
+            if (((DataLine.Info) info).getFormats()[0].getChannels() != channels) {
+                throw new IllegalArgumentException();
+            }
+            return super.getLine(info);
+        }
+
+    }
+
+}
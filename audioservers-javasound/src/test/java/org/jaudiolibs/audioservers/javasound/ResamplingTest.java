@@ -0,0 +1,102 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import org.jaudiolibs.audioservers.AudioClient;
+import org.jaudiolibs.audioservers.AudioConfiguration;
+import org.jaudiolibs.audioservers.AudioServer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplingTest {
+
+    private final static int BUFFER_SIZE = 256;
+    private final static int LEVEL = 8192;
+
+    @Test(timeout = 10000)
+    public void defaultQualityWhenLineRateDiffers() throws Exception {
+        StubMixer mixer = new StubMixer("resampled", 44100);
+        // no JSResamplerQuality in the configuration
+        AudioConfiguration config = new AudioConfiguration(48000, 0, 2, BUFFER_SIZE,
+                new JSDevice(mixer, 0, 2));
+        LevelClient client = new LevelClient(40);
+        AudioServer server = new JSAudioServerProvider().createServer(config, client);
+        server.run();
+        StubLine out = mixer.getOutputLine();
+        assertEquals(44100, out.getFormat().getSampleRate(), 0);
+        assertTrue(out.getWrites() > 0);
+        assertEquals(40, client.calls);
+        // filter has settled on a constant level by the last buffer
+        for (int frame = 0; frame < 4; frame++) {
+            assertEquals(LEVEL, out.getLastSample(frame, 0), LEVEL / 100);
+            assertEquals(LEVEL, out.getLastSample(frame, 1), LEVEL / 100);
+        }
+    }
+
+    private static class LevelClient implements AudioClient {
+
+        private final int maxCalls;
+
+        private int calls;
+
+        private LevelClient(int maxCalls) {
+            this.maxCalls = maxCalls;
+        }
+
+        @Override
+        public void configure(AudioConfiguration context) {
+        }
+
+        @Override
+        public boolean process(long time, List<FloatBuffer> inputs,
+                List<FloatBuffer> outputs, int nframes) {
+            for (FloatBuffer output : outputs) {
+                for (int i = 0; i < nframes; i++) {
+                    output.put(i, LEVEL / 32767f);
+                }
+            }
+            return ++calls < maxCalls;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import org.jaudiolibs.audioservers.util.AllocationProbe;
+
+/**
+ * Source or target line that never blocks. Reads return silence, and the
+ * last block written is kept for inspection. Allocation on the device thread
+ * between consecutive writes can be recorded with an AllocationProbe - this
+ * covers a full server cycle, including the client. Every write is recorded
+ * from the first, so the code path does not change once warmup is over.
+ */
+class StubLine implements SourceDataLine, TargetDataLine {
+
+    private final boolean source;
+    private final Line.Info info;
+    private final float lineRate;
+
+    private AudioFormat format;
+    private int bufferSize;
+    private boolean open;
+    private boolean running;
+    private long bytes;
+    private byte[] last;
+    private int lastLength;
+    private volatile long writes;
+
+    private final AllocationProbe probe;
+    private final long[] cycleBytes;
+    private long probeThread;
+
+    /**
+     * Create a line.
+     *
+     * @param source whether this is a source (output) line
+     * @param info line info
+     * @param lineRate rate to open at regardless of request, or NOT_SPECIFIED
+     * @param recordWrites number of writes to record allocation for, or zero
+     */
+    StubLine(boolean source, Line.Info info, float lineRate, int recordWrites) {
+        this.source = source;
+        this.info = info;
+        this.lineRate = lineRate;
+        this.last = new byte[0];
+        this.probeThread = -1;
+        if (recordWrites > 0) {
+            probe = new AllocationProbe();
+            cycleBytes = new long[recordWrites];
+        } else {
+            probe = null;
+            cycleBytes = null;
+        }
+    }
+
+    boolean isSource() {
+        return source;
+    }
+
+    /**
+     * Number of recorded cycles from the given write on.
+     */
+    int getRecordedCycles(int fromWrite) {
+        return Math.max(0, (int) Math.min(writes, cycleBytes.length) - fromWrite);
+    }
+
+    /**
+     * Maximum bytes allocated between consecutive writes, for the cycles
+     * ending at the given write and later. Only valid once writing has
+     * stopped.
+     */
+    long getMaxCycleBytes(int fromWrite) {
+        long max = 0;
+        int end = (int) Math.min(writes, cycleBytes.length);
+        for (int i = fromWrite; i < end; i++) {
+            max = Math.max(max, cycleBytes[i]);
+        }
+        return max;
+    }
+
+    long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Sample of the last block written, as a signed 16-bit little endian
+     * value.
+     */
+    int getLastSample(int frame, int channel) {
+        int index = frame * format.getFrameSize() + channel * 2;
+        if (index + 1 >= lastLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        return (short) ((last[index] & 0xff) | (last[index + 1] << 8));
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        if (lineRate > 0 && lineRate != format.getSampleRate()) {
+            // like a device that ignores the requested rate
+            format = new AudioFormat(lineRate, format.getSampleSizeInBits(),
+                    format.getChannels(), true, format.isBigEndian());
+        }
+        this.format = format;
+        this.bufferSize = bufferSize;
+        // large enough for any write, so writes never allocate
+        this.last = new byte[bufferSize];
+        open = true;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, format.getFrameSize() * 4096);
+    }
+
+    @Override
+    public void open() {
+        open(new AudioFormat(44100, 16, 2, true, false));
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        AllocationProbe p = probe;
+        if (p != null) {
+            long cycle = p.stop();
+            long id = Thread.currentThread().getId();
+            if (id != probeThread) {
+                // first write, or started on another thread
+                cycle = -1;
+                probeThread = id;
+            }
+            if (writes < cycleBytes.length) {
+                cycleBytes[(int) writes] = cycle;
+            }
+        }
+        System.arraycopy(data, offset, last, 0, Math.min(length, last.length));
+        lastLength = length;
+        bytes += length;
+        writes++;
+        if (p != null) {
+            p.start();
+        }
+        return length;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = 0;
+        }
+        bytes += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return bufferSize;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return bytes / format.getFrameSize();
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1e6 / format.getSampleRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return info;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        running = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException();
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+
+}
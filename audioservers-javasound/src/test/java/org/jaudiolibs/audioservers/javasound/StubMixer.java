@@ -0,0 +1,210 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2020 Neil C Smith.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details.
+ *
+ * You should have received a copy of the GNU General Public License version 2
+ * along with this work; if not, see http://www.gnu.org/licenses/
+ *
+ *
+ * Linking this work statically or dynamically with other modules is making a
+ * combined work based on this work. Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this work give you permission
+ * to link this work with independent modules to produce an executable,
+ * regardless of the license terms of these independent modules, and to copy and
+ * distribute the resulting executable under terms of your choice, provided that
+ * you also meet, for each linked independent module, the terms and conditions of
+ * the license of that module. An independent module is a module which is not
+ * derived from or based on this work. If you modify this work, you may extend
+ * this exception to your version of the work, but you are not obligated to do so.
+ * If you do not wish to do so, delete this exception statement from your version.
+ *
+ */
+package org.jaudiolibs.audioservers.javasound;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Mixer returning StubLines, for driving JSAudioServer without a sound card.
+ */
+class StubMixer implements Mixer {
+
+    private final Mixer.Info info;
+    private final List<StubLine> lines;
+    private final float lineRate;
+    private int recordWrites;
+
+    StubMixer(String name) {
+        this(name, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /**
+     * Create a mixer whose lines always open at the given sample rate,
+     * whatever rate is requested.
+     */
+    StubMixer(String name, float lineRate) {
+        info = new Mixer.Info(name, "stub", "stub", "1") {
+        };
+        lines = new ArrayList<>();
+        this.lineRate = lineRate;
+    }
+
+    /**
+     * Record allocation on the device thread for the given number of writes
+     * to source lines returned after this call.
+     */
+    synchronized void recordAllocation(int writes) {
+        recordWrites = writes;
+    }
+
+    /**
+     * The source line most recently returned by this mixer.
+     */
+    StubLine getOutputLine() {
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            if (lines.get(i).isSource()) {
+                return lines.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static DataLine.Info lineInfo(Class<? extends DataLine> type) {
+        AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                AudioSystem.NOT_SPECIFIED, 16, AudioSystem.NOT_SPECIFIED,
+                AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, false);
+        return new DataLine.Info(type, new AudioFormat[]{format},
+                AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED);
+    }
+
+    @Override
+    public Mixer.Info getMixerInfo() {
+        return info;
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo() {
+        return new Line.Info[]{lineInfo(SourceDataLine.class)};
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo() {
+        return new Line.Info[]{lineInfo(TargetDataLine.class)};
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo(Line.Info info) {
+        return getSourceLineInfo();
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo(Line.Info info) {
+        return getTargetLineInfo();
+    }
+
+    @Override
+    public boolean isLineSupported(Line.Info info) {
+        return true;
+    }
+
+    @Override
+    public synchronized Line getLine(Line.Info info) {
+        boolean source = SourceDataLine.class.isAssignableFrom(info.getLineClass());
+        StubLine line = new StubLine(source, info, lineRate,
+                source ? recordWrites : 0);
+        lines.add(line);
+        return line;
+    }
+
+    @Override
+    public int getMaxLines(Line.Info info) {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line[] getSourceLines() {
+        return new Line[0];
+    }
+
+    @Override
+    public Line[] getTargetLines() {
+        return new Line[0];
+    }
+
+    @Override
+    public void synchronize(Line[] lines, boolean maintainSync) {
+        throw new IllegalArgumentException();
+    }
+
+    @Override
+    public void unsynchronize(Line[] lines) {
+    }
+
+    @Override
+    public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+        return false;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new Line.Info(Mixer.class);
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException();
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+
+}